@@ -0,0 +1,19 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// extra counter reported next to every benchmark, the cells produced per second
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Cells {
+    public long cells;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        cells = 0;
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// whole grid generation with the single threaded engines
+// Main runs the same row loop as Sequential on its band, it needs MPJ Express and is measured with the scaling harness
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx4g"})
+public class EngineBenchmark {
+
+    @Param({"4", "5", "6", "7", "8", "9"})
+    public int depth;
+
+    private Object grid;     // BitGrid, reused by every call of Sequential
+    private Object kernel;   // RowKernel for the depth
+    private long cellCount;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        int size = (int) Math.pow(3, depth);
+        grid = Engines.NEW_GRID.invokeExact(size);
+        kernel = Engines.CREATE_KERNEL.invokeExact(depth);
+        cellCount = (long) size * size;
+    }
+
+    @Benchmark
+    public Object sequential(Cells cells) throws Throwable {
+        Engines.SEQUENTIAL.invokeExact(grid, kernel);
+        cells.cells += cellCount;
+        return grid;
+    }
+
+    @Benchmark
+    public Object selfSimilar(Cells cells) throws Throwable {
+        Object result = Engines.SELF_SIMILAR.invokeExact(depth);   // allocates its own grid
+        cells.cells += cellCount;
+        return result;
+    }
+}
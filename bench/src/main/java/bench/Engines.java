@@ -0,0 +1,95 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+// handles to the engine classes, which live in the default package and cannot be imported
+// the handles are static final, so the JIT inlines them like direct calls
+final class Engines {
+    static final MethodHandle NEW_GRID = constructor("BitGrid", int.class);
+    static final MethodHandle GRID_ROWS = method("BitGrid", "rows", int.class);
+    static final MethodHandle GRID_WORDS_PER_ROW = method("BitGrid", "wordsPerRow", int.class);
+
+    static final MethodHandle SCALAR_KERNEL = constructor("RowKernel", int.class);
+    static final MethodHandle CREATE_KERNEL = method("RowKernel", "create", type("RowKernel"), int.class);
+    static final MethodHandle COMPUTE_ROW = method("RowKernel", "computeRow", void.class, int.class, long[].class, int.class);
+
+    static final MethodHandle SEQUENTIAL = method("Sequential", "computeFractal", void.class, type("BitGrid"), type("RowKernel"));
+    static final MethodHandle IS_IN_FRACTAL = method("Rule", "contains", boolean.class, int.class, int.class, int.class)
+            .bindTo(constant("Rule", "CARPET"));   // per cell check of the carpet rule, (x, y, depth)
+    static final MethodHandle CARPET_CODE = method("Rule", "code", int.class)
+            .bindTo(constant("Rule", "CARPET"));   // rule code for the result header
+    static final MethodHandle PARALLEL = method("Parallel", "computeBands", void.class,
+            java.util.concurrent.ForkJoinPool.class, type("RowKernel"), type("BitGrid"), int.class, int.class);
+    static final MethodHandle AUTO_THRESHOLD = method("Parallel", "autoThreshold", int.class, int.class, int.class, int.class);
+    static final MethodHandle SELF_SIMILAR = method("SelfSimilar", "compute", type("BitGrid"), int.class);
+
+    static final MethodHandle WRITE_BINARY = method("ResultFile", "write", void.class,
+            java.nio.file.Path.class, type("BitGrid"), int.class, int.class);
+    static final MethodHandle WRITE_TEXT = method("ResultFile", "writeText", void.class, java.nio.file.Path.class, type("BitGrid"));
+    static final MethodHandle READ_BINARY = method("ResultFile", "read", type("BitGrid"), java.nio.file.Path.class);
+
+    private Engines() {
+    }
+
+    // class of the default package
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Engine class " + name + " is missing.", e);
+        }
+    }
+
+    // value of a public static field
+    private static Object constant(String owner, String name) {
+        try {
+            return type(owner).getField(name).get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Engine constant " + owner + "." + name + " is missing.", e);
+        }
+    }
+
+    // handle to a static or instance method, engine types are replaced by Object
+    private static MethodHandle method(String owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+            Method method = type.getDeclaredMethod(name, parameters);
+            if (method.getReturnType() != returnType) {
+                throw new NoSuchMethodException(owner + "." + name + " does not return " + returnType.getName());
+            }
+            MethodHandle handle = lookup.unreflect(method);       // static or instance, private methods too
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Engine method " + owner + "." + name + " is missing.", e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner, Class<?>... parameters) {
+        try {
+            Class<?> type = type(owner);
+            MethodHandle handle = MethodHandles.lookup().findConstructor(type, MethodType.methodType(void.class, parameters));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Engine constructor " + owner + " is missing.", e);
+        }
+    }
+
+    // same type with every class of the default package replaced by Object
+    private static MethodType erase(MethodType type) {
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty() && !type.parameterType(i).isPrimitive()
+                    && !type.parameterType(i).isArray()) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        Class<?> returnType = type.returnType();
+        if (returnType.getPackageName().isEmpty() && !returnType.isPrimitive() && !returnType.isArray()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return type;
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// cost of one row: the per cell Rule.contains check against the scalar and the vector row kernel
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class KernelBenchmark {
+
+    @Param({"4", "5", "6", "7", "8", "9"})
+    public int depth;
+
+    private int size;
+    private int row;              // next row, all rows are visited in turn
+    private long[] out;           // one packed row
+    private Object scalarKernel;
+    private Object vectorKernel;  // vector kernel, or the scalar one if the module is missing
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        size = (int) Math.pow(3, depth);
+        out = new long[(size + 63) >>> 6];
+        scalarKernel = Engines.SCALAR_KERNEL.invokeExact(depth);
+        vectorKernel = Engines.CREATE_KERNEL.invokeExact(depth);
+    }
+
+    private int nextRow() {
+        row = row + 1 == size ? 0 : row + 1;
+        return row;
+    }
+
+    @Benchmark
+    public void isInFractal(Cells cells, Blackhole blackhole) throws Throwable {
+        int i = nextRow();
+        for (int j = 0; j < size; j++) {
+            blackhole.consume((boolean) Engines.IS_IN_FRACTAL.invokeExact(i, j, depth));
+        }
+        cells.cells += size;
+    }
+
+    @Benchmark
+    public long[] scalarKernel(Cells cells) throws Throwable {
+        Engines.COMPUTE_ROW.invokeExact(scalarKernel, nextRow(), out, 0);
+        cells.cells += size;
+        return out;
+    }
+
+    @Benchmark
+    public long[] vectorKernel(Cells cells) throws Throwable {
+        Engines.COMPUTE_ROW.invokeExact(vectorKernel, nextRow(), out, 0);
+        cells.cells += size;
+        return out;
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parallel.ComputeTask through computeBands, for every depth and number of threads
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Xmx4g"})
+public class ParallelBenchmark {
+
+    @Param({"4", "5", "6", "7", "8", "9"})
+    public int depth;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private Object grid;
+    private Object kernel;
+    private int threshold;
+    private long cellCount;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        int size = (int) Math.pow(3, depth);
+        pool = new ForkJoinPool(threads);
+        grid = Engines.NEW_GRID.invokeExact(size);
+        kernel = Engines.CREATE_KERNEL.invokeExact(depth);
+        threshold = (int) Engines.AUTO_THRESHOLD.invokeExact(size, (int) Engines.GRID_WORDS_PER_ROW.invokeExact(grid), threads);
+        cellCount = (long) size * size;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Object computeTask(Cells cells) throws Throwable {
+        Engines.PARALLEL.invokeExact(pool, kernel, grid, 0, threshold);
+        cells.cells += cellCount;
+        return grid;
+    }
+}
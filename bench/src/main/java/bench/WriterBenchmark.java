@@ -0,0 +1,73 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// saving and loading a finished grid, binary result file against the text export
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class WriterBenchmark {
+
+    @Param({"4", "5", "6", "7", "8", "9"})
+    public int depth;
+
+    private Object grid;
+    private Path binary, text;
+    private long cellCount;
+    private int rule;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        grid = Engines.SELF_SIMILAR.invokeExact(depth);
+        binary = Files.createTempFile("result", ".bin");
+        text = Files.createTempFile("result", ".txt");
+        rule = (int) Engines.CARPET_CODE.invokeExact();
+        Engines.WRITE_BINARY.invokeExact(binary, grid, depth, rule);   // file for readBinary
+        int size = (int) Engines.GRID_ROWS.invokeExact(grid);
+        cellCount = (long) size * size;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(binary);
+        Files.deleteIfExists(text);
+    }
+
+    @Benchmark
+    public void writeBinary(Cells cells) throws Throwable {
+        Engines.WRITE_BINARY.invokeExact(binary, grid, depth, rule);
+        cells.cells += cellCount;
+    }
+
+    @Benchmark
+    public Object readBinary(Cells cells) throws Throwable {
+        Object result = Engines.READ_BINARY.invokeExact(binary);
+        cells.cells += cellCount;
+        return result;
+    }
+
+    @Benchmark
+    public void writeText(Cells cells) throws Throwable {
+        Engines.WRITE_TEXT.invokeExact(text, grid);
+        cells.cells += cellCount;
+    }
+}
@@ -0,0 +1,56 @@
+// helper for command line options, options have the form --name or --name=value
+// everything that does not start with "--" is a positional argument (e.g. the recursion depth)
+public class Args {
+
+    // check if an option is present, e.g. --text
+    public static boolean hasFlag(String[] args, String name) {
+        for (String arg : args) {
+            if (arg.equals("--" + name) || arg.startsWith("--" + name + "=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // value of an option, e.g. --threads=8, or the default value if the option is missing
+    public static String value(String[] args, String name, String defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith("--" + name + "=")) {
+                return arg.substring(name.length() + 3);  // skip "--", name and "="
+            }
+        }
+        return defaultValue;
+    }
+
+    // integer value of an option, or the default value if the option is missing or invalid
+    public static int intValue(String[] args, String name, int defaultValue) {
+        String value = value(args, name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for --" + name + ". Using default value of " + defaultValue + ".");
+            return defaultValue;
+        }
+    }
+
+    // arguments that are not options
+    public static String[] positional(String[] args) {
+        int count = 0;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                count++;
+            }
+        }
+        String[] result = new String[count];
+        int index = 0;
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                result[index++] = arg;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// single entry point that picks the engine, the number of threads, the rows per task and in-memory or streaming output
+// from the depth, the processors and the free heap, then runs that engine with the chosen options
+//
+// the choice comes from a cost model: nanoseconds per word for the row kernel and for the self-similar copy,
+// the parallel efficiency, the cost of starting the threads, the overhead of a fork/join task and nanoseconds per written byte
+// the model is measured once by a short calibration run (carpet, about 5 MB grid, well under a second)
+// and kept in tuning.properties, it is measured again if the processors or the row kernel change or with --calibrate
+//
+// options: <depth> --rule, --threads=N (most threads to use, all processors by default), --calibrate,
+//          --tuning=<file>, --dry-run (print the plan only), everything else (--compress, --text, --metrics..)
+//          is passed on to the engine
+// the MPI engine (Main) is not chosen, it has to be started with mpjrun and cannot be run from this process
+public class AutoTune {
+    private static final int DEFAULT_RECURSION_DEPTH = 4;   // default depth
+    private static final String DEFAULT_TUNING_FILE = "tuning.properties";
+    private static final int CALIBRATION_WORDS = 1 << 20;  // largest calibration grid, 8 MB
+    private static final int CALIBRATION_RUNS = 3;         // best of this many runs is kept, after one warm-up run
+    private static final double HEAP_SHARE = 0.6;          // share of the free heap the grid may use, one large array needs contiguous space
+    private static final double MAX_TASK_OVERHEAD = 0.01;  // task overhead as share of the work of a task
+    private static final int TASKS_PER_THREAD = 8;         // bands per thread, same as Parallel
+    private static final long STREAM_BAND_BYTES = 1 << 22; // band memory of Streaming
+
+    // options that are set by the plan and not passed on as given
+    private static final String[] OWN_OPTIONS = {"threads", "threshold", "producers", "buffers", "calibrate", "tuning", "dry-run"};
+
+    // measured costs of this machine
+    static final class Model {
+        final int processors;        // threads the parallel numbers were measured with
+        final String kernel;         // row kernel class, scalar and vector kernels differ a lot
+        final double kernelNs;       // row kernel, one thread, per word
+        final double copyNs;         // self-similar build, per word
+        final double efficiency;     // speedup of all threads divided by the number of threads
+        final double poolNs;         // starting a pool with a thread per processor
+        final double taskNs;         // overhead of one fork/join task
+        final double writeNs;        // result file, per byte
+
+        Model(int processors, String kernel, double kernelNs, double copyNs, double efficiency, double poolNs, double taskNs,
+              double writeNs) {
+            this.processors = processors;
+            this.kernel = kernel;
+            this.kernelNs = kernelNs;
+            this.copyNs = copyNs;
+            this.efficiency = efficiency;
+            this.poolNs = poolNs;
+            this.taskNs = taskNs;
+            this.writeNs = writeNs;
+        }
+    }
+
+    // engine with its options and predicted time
+    static final class Plan {
+        final String engine;
+        final int threads, threshold, producers;
+        final double millis;
+
+        Plan(String engine, int threads, int threshold, int producers, double millis) {
+            this.engine = engine;
+            this.threads = threads;
+            this.threshold = threshold;
+            this.producers = producers;
+            this.millis = millis;
+        }
+
+        @Override
+        public String toString() {
+            String options = switch (engine) {
+                case "parallel" -> threads + " threads, " + threshold + " rows per task";
+                case "streaming" -> producers == 0 ? "computed in the writer thread" : producers + " producers";
+                default -> "1 thread";
+            };
+            return String.format(Locale.ROOT, "%-12s %-32s %10.1f ms", engine, options, millis);
+        }
+    }
+
+    public static void main(String[] args) {
+        // set default recursion depth
+        int recursionDepth = DEFAULT_RECURSION_DEPTH;
+
+        String[] values = Args.positional(args);   // arguments without the --options
+
+        // command line argument handling for the recursion depth
+        if (values.length > 0) {
+            try {
+                recursionDepth = Integer.parseInt(values[0]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid recursion depth. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
+            }
+        } else {
+            System.out.println("No recursion depth argument provided. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
+        }
+
+        Rule rule = Rule.fromArgs(args);
+        int processors = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(1, Math.min(processors, Args.intValue(args, "threads", processors)));
+
+        Path tuningFile = Paths.get(Args.value(args, "tuning", DEFAULT_TUNING_FILE));
+        Model model = Args.hasFlag(args, "calibrate") ? null : load(tuningFile, processors);
+        if (model == null) {
+            System.out.println("Calibrating the cost model...");
+            model = calibrate(processors);
+            store(tuningFile, model);
+        }
+
+        List<Plan> plans;
+        try {
+            plans = plans(model, rule, recursionDepth, threads, availableHeap(), Args.hasFlag(args, "compress"));
+        } catch (IllegalArgumentException e) {   // depth too large for the rule
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        System.out.printf(Locale.ROOT, "Depth %d, rule %s, %d processors, %d MB free heap%n",
+                recursionDepth, rule, processors, availableHeap() >> 20);
+        Plan best = plans.get(0);
+        for (Plan plan : plans) {
+            if (plan.millis < best.millis) {
+                best = plan;
+            }
+        }
+        for (Plan plan : plans) {
+            System.out.println((plan == best ? "* " : "  ") + plan);
+        }
+        System.out.println("Using " + best.engine + ".");
+
+        if (!Args.hasFlag(args, "dry-run")) {
+            run(best, args);
+        }
+    }
+
+    // every engine that fits in memory, with its predicted time, the fastest one is chosen
+    // streaming always fits, only a few bands are in memory
+    static List<Plan> plans(Model model, Rule rule, int depth, int threads, long freeHeap, boolean compress) {
+        int rows = rule.size(depth);
+        long wordsPerRow = BitGrid.wordsFor(rows);
+        double words = (double) rows * wordsPerRow;
+        double writeMillis = (words * Long.BYTES + ResultFile.HEADER_SIZE) * model.writeNs / 1e6;
+
+        // chunks that are being compressed are in memory next to the grid
+        long reserve = compress ? 2L * ForkJoinPool.commonPool().getParallelism() * STREAM_BAND_BYTES : 0;
+        boolean fits = rows * wordsPerRow <= Integer.MAX_VALUE - 8
+                && rows * wordsPerRow * Long.BYTES + reserve <= freeHeap * HEAP_SHARE;
+
+        List<Plan> plans = new ArrayList<>();
+        if (fits) {
+            if (depth <= Sequential.MAX_RECURSION_DEPTH) {
+                plans.add(new Plan("sequential", 1, 0, 0, words * model.kernelNs / 1e6 + writeMillis));
+            }
+            plans.add(new Plan("selfsimilar", 1, 0, 0, words * model.copyNs / 1e6 + writeMillis));
+            if (threads > 1) {
+                int threshold = threshold(model, rows, (int) wordsPerRow, threads);
+                double tasks = 2.0 * rows / threshold;                   // leaves and the tasks that split them
+                double compute = model.poolNs + words * model.kernelNs / (threads * model.efficiency) + tasks * model.taskNs / threads;
+                plans.add(new Plan("parallel", threads, threshold, 0, compute / 1e6 + writeMillis));
+            }
+        }
+
+        // streaming: with producers, computing and writing overlap and the slower one sets the time
+        int producers = threads > 1 ? threads - 1 : 0;
+        double compute = words * model.kernelNs / 1e6;
+        double millis = producers == 0 ? compute + writeMillis
+                : model.poolNs / 1e6 + Math.max(compute / (producers * model.efficiency), writeMillis);
+        plans.add(new Plan("streaming", Math.max(1, producers), 0, producers, millis));
+        return plans;
+    }
+
+    // rows per task: about TASKS_PER_THREAD bands per thread, but a task must do enough work
+    // that its measured overhead stays below MAX_TASK_OVERHEAD of the task
+    static int threshold(Model model, int rows, int wordsPerRow, int threads) {
+        double minWords = model.taskNs / MAX_TASK_OVERHEAD / model.kernelNs;
+        int perThread = rows / (threads * TASKS_PER_THREAD);
+        int minimum = (int) Math.ceil(minWords / wordsPerRow);
+        return Math.max(1, Math.min(rows, Math.max(perThread, minimum)));
+    }
+
+    // run the engine of the plan with its options and the options of the user
+    private static void run(Plan plan, String[] args) {
+        List<String> engineArgs = new ArrayList<>();
+        for (String arg : args) {
+            boolean own = false;
+            for (String option : OWN_OPTIONS) {
+                own |= arg.equals("--" + option) || arg.startsWith("--" + option + "=");
+            }
+            if (!own) {
+                engineArgs.add(arg);
+            }
+        }
+        switch (plan.engine) {
+            case "parallel" -> {
+                engineArgs.add("--threads=" + plan.threads);
+                engineArgs.add("--threshold=" + plan.threshold);
+            }
+            case "streaming" -> engineArgs.add("--producers=" + plan.producers);
+            default -> { }
+        }
+
+        String[] engineArray = engineArgs.toArray(new String[0]);
+        switch (plan.engine) {
+            case "sequential" -> Sequential.main(engineArray);
+            case "selfsimilar" -> SelfSimilar.main(engineArray);
+            case "parallel" -> Parallel.main(engineArray);
+            default -> Streaming.main(engineArray);
+        }
+    }
+
+    // free heap: what the JVM may still allocate
+    private static long availableHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    // measure the model on a carpet of about CALIBRATION_WORDS words
+    static Model calibrate(int processors) {
+        int depth = 1;
+        while ((long) Rule.CARPET.size(depth + 1) * BitGrid.wordsFor(Rule.CARPET.size(depth + 1)) <= CALIBRATION_WORDS) {
+            depth++;
+        }
+        RowKernel kernel = RowKernel.create(Rule.CARPET, depth);
+        BitGrid grid = new BitGrid(kernel.size());
+        double words = grid.words().length;
+        int rows = grid.rows();
+
+        // one thread: row kernel and self-similar build
+        long kernelTime = best(() -> {
+            for (int i = 0; i < rows; i++) {
+                kernel.computeRow(i, grid.words(), grid.rowOffset(i));
+            }
+        });
+        int copyDepth = depth;
+        long copyTime = best(() -> SelfSimilar.compute(Rule.CARPET, copyDepth));
+
+        // task overhead: one task per row on a single thread against the plain loop
+        ForkJoinPool single = new ForkJoinPool(1);
+        long taskTime = best(() -> Parallel.computeBands(single, kernel, grid, 0, 1));
+        single.shutdown();
+        double taskNs = Math.max(0, (taskTime - kernelTime) / (2.0 * rows));
+
+        // all threads, with one band per thread so the task overhead does not count
+        double efficiency = 1, poolNs = 0;
+        if (processors > 1) {
+            poolNs = best(() -> {                       // start every thread once
+                ForkJoinPool pool = new ForkJoinPool(processors);
+                List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                for (int i = 0; i < processors; i++) {
+                    tasks.add(pool.submit(Thread::onSpinWait));
+                }
+                tasks.forEach(ForkJoinTask::join);
+                pool.shutdown();
+            });
+            ForkJoinPool pool = new ForkJoinPool(processors);
+            long parallelTime = best(() -> Parallel.computeBands(pool, kernel, grid, 0, Math.max(1, rows / processors)));
+            pool.shutdown();
+            efficiency = Math.min(1, kernelTime / (double) (parallelTime * processors));
+        }
+
+        // writing the result file, in the working directory where the result goes
+        double writeNs = 0;
+        Path file = null;
+        try {
+            file = Files.createTempFile(Paths.get("."), "calibration", ".bin");
+            Path target = file;
+            long writeTime = best(() -> {
+                try {
+                    ResultFile.write(target, grid, copyDepth, Rule.CARPET.code());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writeNs = writeTime / (words * Long.BYTES);
+        } catch (IOException | RuntimeException e) {  // handle exception, the model then ignores writing
+            e.printStackTrace();
+        } finally {
+            try {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        Model model = new Model(processors, kernel.getClass().getName(), kernelTime / words, copyTime / words,
+                efficiency, poolNs, taskNs, writeNs);
+        System.out.printf(Locale.ROOT, "Kernel %.3f ns/word, copy %.3f ns/word, parallel efficiency %.2f, pool start %.0f us, task %.0f ns, write %.3f ns/byte%n",
+                model.kernelNs, model.copyNs, model.efficiency, model.poolNs / 1000, model.taskNs, model.writeNs);
+        return model;
+    }
+
+    // fastest of CALIBRATION_RUNS runs in nanoseconds, after a warm-up run
+    private static long best(Runnable work) {
+        work.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < CALIBRATION_RUNS; i++) {
+            long start = System.nanoTime();
+            work.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return Math.max(1, best);
+    }
+
+    // model from the tuning file, null if it is missing, unreadable or was measured on other hardware or another kernel
+    static Model load(Path file, int processors) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+            Model model = new Model(Integer.parseInt(properties.getProperty("processors")), properties.getProperty("kernel"),
+                    Double.parseDouble(properties.getProperty("kernel.nsPerWord")),
+                    Double.parseDouble(properties.getProperty("copy.nsPerWord")),
+                    Double.parseDouble(properties.getProperty("parallel.efficiency")),
+                    Double.parseDouble(properties.getProperty("pool.ns")),
+                    Double.parseDouble(properties.getProperty("task.ns")),
+                    Double.parseDouble(properties.getProperty("write.nsPerByte")));
+            String kernel = RowKernel.create(Rule.CARPET, 1).getClass().getName();
+            return model.processors == processors && kernel.equals(model.kernel) ? model : null;
+        } catch (IOException | NumberFormatException | NullPointerException e) {  // missing or invalid values
+            System.err.println("Invalid tuning file " + file + ", calibrating again.");
+            return null;
+        }
+    }
+
+    static void store(Path file, Model model) {
+        Properties properties = new Properties();
+        properties.setProperty("processors", String.valueOf(model.processors));
+        properties.setProperty("kernel", model.kernel);
+        properties.setProperty("kernel.nsPerWord", String.valueOf(model.kernelNs));
+        properties.setProperty("copy.nsPerWord", String.valueOf(model.copyNs));
+        properties.setProperty("parallel.efficiency", String.valueOf(model.efficiency));
+        properties.setProperty("pool.ns", String.valueOf(model.poolNs));
+        properties.setProperty("task.ns", String.valueOf(model.taskNs));
+        properties.setProperty("write.nsPerByte", String.valueOf(model.writeNs));
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, "cost model of AutoTune, delete or run with --calibrate to measure again");
+        } catch (IOException e) {  // handle exception, the model is measured again next time
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+// packed grid of cells, one bit per cell
+// every row starts on a new word, 64 cells per long, bit (col & 63) of word (col >>> 6)
+public class BitGrid {
+    private final int rows, cols;      // grid dimensions
+    private final int wordsPerRow;     // number of longs that hold one row
+    private final long[] words;        // all rows, one after the other
+
+    // square grid, used by all engines
+    public BitGrid(int size) {
+        this(size, size);
+    }
+
+    // constructor, rows x cols cells, all 0 (white)
+    public BitGrid(int rows, int cols) {
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Negative grid dimensions: " + rows + " x " + cols);
+        }
+        long total = (long) rows * wordsFor(cols);          // total number of longs
+        if (total > Integer.MAX_VALUE - 8) {                // max array size of the JVM
+            throw new IllegalArgumentException("Grid of " + rows + " x " + cols + " cells is too large to keep in memory.");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.wordsPerRow = wordsFor(cols);
+        this.words = new long[(int) total];
+    }
+
+    // number of longs needed for a row of given length
+    public static int wordsFor(int cols) {
+        return (cols + 63) >>> 6;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int wordsPerRow() {
+        return wordsPerRow;
+    }
+
+    // backing array, rows are stored at rowOffset(row)
+    public long[] words() {
+        return words;
+    }
+
+    // index of the first word of a row in the backing array
+    public int rowOffset(int row) {
+        return row * wordsPerRow;
+    }
+
+    // check a cell, true if 1 (black)
+    public boolean get(int row, int col) {
+        return (words[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;  // shift uses only the low 6 bits
+    }
+
+    // set a cell to 1 (black)
+    public void set(int row, int col) {
+        words[row * wordsPerRow + (col >>> 6)] |= 1L << col;
+    }
+
+    // set a cell to 0 (white)
+    public void clear(int row, int col) {
+        words[row * wordsPerRow + (col >>> 6)] &= ~(1L << col);
+    }
+
+    // set a cell to the given value
+    public void set(int row, int col, boolean value) {
+        if (value) {
+            set(row, col);
+        } else {
+            clear(row, col);
+        }
+    }
+
+    // set length cells of a row starting at col to 0 (white)
+    public void clearRange(int row, int col, int length) {
+        long bit = (long) rowOffset(row) * 64 + col;
+        while (length > 0) {
+            int word = (int) (bit >>> 6);
+            int shift = (int) (bit & 63);
+            int count = Math.min(length, 64 - shift);
+            words[word] &= ~((count == 64 ? -1L : (1L << count) - 1) << shift);
+            bit += count;
+            length -= count;
+        }
+    }
+
+    // copy length cells of row srcRow starting at srcCol to row dstRow starting at dstCol
+    public void copyRange(int srcRow, int srcCol, int dstRow, int dstCol, int length) {
+        copyBits(words, (long) rowOffset(srcRow) * 64 + srcCol, words, (long) rowOffset(dstRow) * 64 + dstCol, length);
+    }
+
+    // copy length bits from src starting at bit srcBit to dst starting at bit dstBit
+    // works a whole destination word at a time, the two ranges must not overlap
+    public static void copyBits(long[] src, long srcBit, long[] dst, long dstBit, int length) {
+        while (length > 0) {
+            int dstWord = (int) (dstBit >>> 6);
+            int dstShift = (int) (dstBit & 63);
+            int count = Math.min(length, 64 - dstShift);            // bits that still fit into this destination word
+            long mask = (count == 64 ? -1L : (1L << count) - 1) << dstShift;
+            dst[dstWord] = (dst[dstWord] & ~mask) | ((readBits(src, srcBit, count) << dstShift) & mask);
+            srcBit += count;
+            dstBit += count;
+            length -= count;
+        }
+    }
+
+    // count bits (1 to 64) starting at bit, returned in the low bits of the result
+    private static long readBits(long[] src, long bit, int count) {
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = src[word] >>> shift;
+        if (shift != 0 && shift + count > 64) {                    // bits continue in the next word
+            value |= src[word + 1] << (64 - shift);
+        }
+        return count == 64 ? value : value & ((1L << count) - 1);
+    }
+
+    // number of 1 bits in words, from bit fromBit on for length bits
+    public static int countBits(long[] words, long fromBit, int length) {
+        int count = 0;
+        while (length > 0) {
+            int n = Math.min(length, 64);
+            count += Long.bitCount(readBits(words, fromBit, n));
+            fromBit += n;
+            length -= n;
+        }
+        return count;
+    }
+
+    // memory used by the cells in bytes
+    public long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+}
@@ -0,0 +1,265 @@
+import java.math.BigInteger;
+
+// questions about the carpet (or another fractal of Rule) of any depth without a grid,
+// everything comes from the base k digits of the coordinates
+// cell (x, y) is filled if for every level the block of its digits is kept by the rule
+// (bit k * y digit + x digit of the keep mask, the carpet drops only the center block)
+//
+// contains: O(depth), count of a rectangle: O(depth^2), row or column slice: O(depth + length)
+// coordinates are long (up to 2^63 cells per side) or BigInteger (any depth), x is the column, y the row
+//
+// usage: java CarpetQuery <depth> contains <x> <y>
+//        java CarpetQuery <depth> count <x0> <y0> <x1> <y1>      (cells x0 <= x < x1, y0 <= y < y1)
+//        java CarpetQuery <depth> row|column <index> <from> <length>
+//        with --rule=R for other fractals
+public class CarpetQuery {
+    private final int depth;
+    private final Rule rule;
+    private final int base;                // blocks per side, k
+    private final BigInteger[] sides;      // sides[d] = k^d
+    private final BigInteger[] filled;     // filled[d] = filled cells of the fractal of depth d
+
+    // constructor, carpet of 3^depth x 3^depth cells
+    public CarpetQuery(int depth) {
+        this(Rule.CARPET, depth);
+    }
+
+    // constructor, fractal of k^depth x k^depth cells
+    public CarpetQuery(Rule rule, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Depth must not be negative: " + depth);
+        }
+        this.depth = depth;
+        this.rule = rule;
+        this.base = rule.base();
+        this.sides = new BigInteger[depth + 1];
+        this.filled = new BigInteger[depth + 1];
+        BigInteger kept = BigInteger.valueOf(rule.keptBlocks());
+        for (int d = 0; d <= depth; d++) {
+            sides[d] = BigInteger.valueOf(base).pow(d);
+            filled[d] = kept.pow(d);
+        }
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    // cells per side, k^depth
+    public BigInteger size() {
+        return sides[depth];
+    }
+
+    // filled cells of the whole grid
+    public BigInteger filled() {
+        return filled[depth];
+    }
+
+    // is the cell filled, cells outside of the grid are not
+    public boolean contains(long x, long y) {
+        if (x < 0 || y < 0 || (sides[depth].bitLength() < 64 && (x >= sides[depth].longValue() || y >= sides[depth].longValue()))) {
+            return false;
+        }
+        for (int k = 0; k < depth; k++) {             // one digit per level, lowest first
+            if (!kept((int) (x % base), (int) (y % base))) {
+                return false;
+            }
+            x /= base;
+            y /= base;
+        }
+        return true;
+    }
+
+    public boolean contains(BigInteger x, BigInteger y) {
+        if (x.signum() < 0 || y.signum() < 0 || x.compareTo(size()) >= 0 || y.compareTo(size()) >= 0) {
+            return false;
+        }
+        int[] xDigits = digits(x);
+        int[] yDigits = digits(y);
+        for (int k = 0; k < depth; k++) {
+            if (!kept(xDigits[k], yDigits[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // filled cells in the rectangle x0 <= x < x1, y0 <= y < y1, the parts outside of the grid count as empty
+    public BigInteger count(long x0, long y0, long x1, long y1) {
+        return count(BigInteger.valueOf(x0), BigInteger.valueOf(y0), BigInteger.valueOf(x1), BigInteger.valueOf(y1));
+    }
+
+    public BigInteger count(BigInteger x0, BigInteger y0, BigInteger x1, BigInteger y1) {
+        x0 = clamp(x0);
+        y0 = clamp(y0);
+        x1 = clamp(x1);
+        y1 = clamp(y1);
+        if (x0.compareTo(x1) >= 0 || y0.compareTo(y1) >= 0) {
+            return BigInteger.ZERO;
+        }
+        // rectangle from four prefix rectangles that start at (0, 0)
+        return prefix(depth, x1, y1).subtract(prefix(depth, x0, y1)).subtract(prefix(depth, x1, y0)).add(prefix(depth, x0, y0));
+    }
+
+    // cells (from + i, row) for i < length, bit i of the result is set if the cell is filled (same layout as a BitGrid row)
+    public long[] rowSlice(long row, long from, int length) {
+        return rowSlice(BigInteger.valueOf(row), BigInteger.valueOf(from), length);
+    }
+
+    public long[] rowSlice(BigInteger row, BigInteger from, int length) {
+        return slice(row, from, length, true);
+    }
+
+    // cells (column, from + i) for i < length
+    public long[] columnSlice(long column, long from, int length) {
+        return columnSlice(BigInteger.valueOf(column), BigInteger.valueOf(from), length);
+    }
+
+    public long[] columnSlice(BigInteger column, BigInteger from, int length) {
+        return slice(column, from, length, false);
+    }
+
+    // filled cells in [0, x) x [0, y) of the fractal of depth d, 0 <= x, y <= k^d
+    // the k x k blocks of the top level are either full (filled[d - 1] cells), cut by x or y, or cut by both
+    // blocks cut the same way have the same count, so there are at most three smaller problems per level:
+    // (full width, y rest) and (x rest, full height) only lead to problems of the same kind, which gives O(d^2)
+    private BigInteger prefix(int d, BigInteger x, BigInteger y) {
+        if (x.signum() == 0 || y.signum() == 0) {
+            return BigInteger.ZERO;
+        }
+        if (x.equals(sides[d]) && y.equals(sides[d])) {
+            return filled[d];
+        }
+        BigInteger s = sides[d - 1];                                  // side of a block
+        BigInteger[] qx = x.divideAndRemainder(s);                    // full block columns and rest
+        BigInteger[] qy = y.divideAndRemainder(s);
+        int a = qx[0].intValue(), b = qy[0].intValue();
+
+        int full = 0, fullColumns = 0, fullRows = 0, corner = 0;     // kept blocks per kind of cut
+        for (int j = 0; j <= Math.min(b, base - 1); j++) {
+            for (int i = 0; i <= Math.min(a, base - 1); i++) {
+                if (!kept(i, j)) {
+                    continue;
+                }
+                if (i < a && j < b) {
+                    full++;
+                } else if (i < a) {
+                    fullColumns++;                                    // whole block width, rows cut at y
+                } else if (j < b) {
+                    fullRows++;                                       // whole block height, columns cut at x
+                } else {
+                    corner++;
+                }
+            }
+        }
+
+        BigInteger total = filled[d - 1].multiply(BigInteger.valueOf(full));
+        if (fullColumns > 0 && qy[1].signum() > 0) {
+            total = total.add(prefix(d - 1, s, qy[1]).multiply(BigInteger.valueOf(fullColumns)));
+        }
+        if (fullRows > 0 && qx[1].signum() > 0) {
+            total = total.add(prefix(d - 1, qx[1], s).multiply(BigInteger.valueOf(fullRows)));
+        }
+        if (corner > 0 && qx[1].signum() > 0 && qy[1].signum() > 0) {
+            total = total.add(prefix(d - 1, qx[1], qy[1]));
+        }
+        return total;
+    }
+
+    // line of cells along a row (fixed = row) or a column (fixed = column), starting at from
+    // the digits of the position are counted up like an odometer, blocked counts the levels whose block is dropped,
+    // so every step only looks at the digits that changed
+    private long[] slice(BigInteger fixed, BigInteger from, int length, boolean alongRow) {
+        if (length < 0 || from.signum() < 0) {
+            throw new IllegalArgumentException("Invalid slice: from " + from + ", length " + length);
+        }
+        long[] bits = new long[BitGrid.wordsFor(length)];
+        if (fixed.signum() < 0 || fixed.compareTo(size()) >= 0 || from.compareTo(size()) >= 0) {
+            return bits;                                           // line outside of the grid
+        }
+        int inside = size().subtract(from).min(BigInteger.valueOf(length)).intValue();
+        int[] fixedDigits = digits(fixed);
+        int[] digits = digits(from);
+
+        int blocked = 0;
+        for (int k = 0; k < depth; k++) {
+            if (!keptAlong(digits[k], fixedDigits[k], alongRow)) {
+                blocked++;
+            }
+        }
+        for (int i = 0; i < inside; i++) {
+            if (blocked == 0) {
+                bits[i >>> 6] |= 1L << i;
+            }
+            for (int k = 0; k < depth; k++) {                      // next position, carry into the higher digits
+                if (!keptAlong(digits[k], fixedDigits[k], alongRow)) {
+                    blocked--;
+                }
+                digits[k] = (digits[k] + 1) % base;
+                if (!keptAlong(digits[k], fixedDigits[k], alongRow)) {
+                    blocked++;
+                }
+                if (digits[k] != 0) {
+                    break;
+                }
+            }
+        }
+        return bits;
+    }
+
+    private boolean keptAlong(int digit, int fixedDigit, boolean alongRow) {
+        return alongRow ? kept(digit, fixedDigit) : kept(fixedDigit, digit);
+    }
+
+    // is the block with column digit i and row digit j kept
+    private boolean kept(int i, int j) {
+        return rule.kept(i, j);
+    }
+
+    // base k digits of a coordinate, lowest first, depth digits
+    private int[] digits(BigInteger value) {
+        String text = value.toString(base);
+        int[] digits = new int[depth];
+        for (int k = 0; k < depth && k < text.length(); k++) {
+            digits[k] = text.charAt(text.length() - 1 - k) - '0';
+        }
+        return digits;
+    }
+
+    private BigInteger clamp(BigInteger value) {
+        return value.max(BigInteger.ZERO).min(size());
+    }
+
+    public static void main(String[] args) {
+        Rule rule = Rule.fromArgs(args);            // --rule, the carpet by default
+        args = Args.positional(args);
+        if (args.length < 2) {
+            System.err.println("Usage: CarpetQuery <depth> contains <x> <y> | count <x0> <y0> <x1> <y1> | row|column <index> <from> <length> [--rule=R]");
+            return;
+        }
+        try {
+            CarpetQuery query = new CarpetQuery(rule, Integer.parseInt(args[0]));
+            switch (args[1]) {
+                case "contains" -> System.out.println(query.contains(new BigInteger(args[2]), new BigInteger(args[3])));
+                case "count" -> System.out.println(query.count(new BigInteger(args[2]), new BigInteger(args[3]),
+                        new BigInteger(args[4]), new BigInteger(args[5])));
+                case "row", "column" -> {
+                    int length = Integer.parseInt(args[4]);
+                    long[] bits = args[1].equals("row")
+                            ? query.rowSlice(new BigInteger(args[2]), new BigInteger(args[3]), length)
+                            : query.columnSlice(new BigInteger(args[2]), new BigInteger(args[3]), length);
+                    StringBuilder line = new StringBuilder(length);
+                    for (int i = 0; i < length; i++) {
+                        line.append((bits[i >>> 6] >>> i & 1) != 0 ? '1' : '0');
+                    }
+                    System.out.println(line);
+                }
+                default -> System.err.println("Unknown query: " + args[1]);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Invalid arguments: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
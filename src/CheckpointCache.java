@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+// directory of finished results in the result file format, one file per depth and rule
+// the fractal of depth d is k^(d - c) x k^(d - c) blocks that are either empty or a copy of the fractal of depth c,
+// so a grid can be built from the deepest checkpoint instead of from scratch, and a depth sweep only computes one level per run
+// enabled with --checkpoints (directory "checkpoints") or --checkpoints=<dir>
+public class CheckpointCache {
+    public static final String DEFAULT_DIR = "checkpoints";
+    private static final int MIN_TILE_DEPTH = 4;   // smaller checkpoints are not used, a copied block should span at least a word
+
+    private final Path dir;
+    private final Rule rule;                       // part of the key, through its code
+
+    public CheckpointCache(Path dir, Rule rule) {
+        this.dir = dir;
+        this.rule = rule;
+    }
+
+    // cache from --checkpoints[=dir], null if the option is not given
+    public static CheckpointCache fromArgs(String[] args, Rule rule) {
+        if (!Args.hasFlag(args, "checkpoints")) {
+            return null;
+        }
+        return new CheckpointCache(Paths.get(Args.value(args, "checkpoints", DEFAULT_DIR)), rule);
+    }
+
+    // file of a depth
+    public Path pathFor(int depth) {
+        return dir.resolve(String.format("rule-%03x-d%02d.bin", rule.code(), depth));
+    }
+
+    // fill rows firstRow.. of the fractal of a depth into the grid from the deepest valid checkpoint
+    // the grid can be the whole carpet or a band of it, it must be empty
+    // returns the depth of the checkpoint that was used, -1 if there is none and the grid is unchanged
+    public int fill(BitGrid grid, int firstRow, int depth) {
+        for (int c = depth; c >= Math.min(depth, MIN_TILE_DEPTH); c--) {
+            BitGrid tile = load(c);
+            if (tile == null) {
+                continue;
+            }
+            if (firstRow == 0 && grid.rows() == grid.cols()) {
+                // whole grid, copy the checkpoint to the top left corner and grow it level by level
+                for (int r = 0; r < tile.rows(); r++) {
+                    System.arraycopy(tile.words(), tile.rowOffset(r), grid.words(), grid.rowOffset(r), tile.wordsPerRow());
+                }
+                for (int tileSize = tile.rows(); tileSize < grid.rows(); tileSize *= rule.base()) {
+                    SelfSimilar.expand(grid, tileSize, rule);
+                }
+            } else {
+                extendRows(tile, grid, firstRow, depth - c);
+            }
+            return c;
+        }
+        return -1;
+    }
+
+    // checkpoint of a depth with verified header and checksum, null if there is none
+    // a damaged checkpoint is deleted, so it is written again by the next run
+    public BitGrid load(int depth) {
+        Path path = pathFor(depth);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            ResultFile.Header header = ResultFile.readHeader(path);
+            if (header.depth != depth || header.rule != rule.code()) {
+                throw new IOException("Checkpoint " + path + " is for depth " + header.depth + " and rule " + header.rule + ".");
+            }
+            return ResultFile.read(path);          // checks the checksum
+        } catch (IOException e) {
+            System.err.println("Ignoring damaged checkpoint: " + e.getMessage());
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException deleteFailed) {  // handle exception
+                deleteFailed.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    // keep a finished result file as checkpoint of its depth, it is copied under a temporary name and then renamed,
+    // so other runs never see a half written checkpoint
+    public void store(int depth, Path resultFile) {
+        Path path = pathFor(depth);
+        try {
+            ResultFile.Header header = ResultFile.readHeader(resultFile);
+            if (header.depth != depth || header.rule != rule.code()) {
+                System.err.println("Result file does not match depth " + depth + ", no checkpoint written.");
+                return;
+            }
+            if (Files.exists(path) && ResultFile.readHeader(path).checksum == header.checksum) {
+                return;                            // same result is already stored
+            }
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, "carpet", ".tmp");
+            Files.copy(resultFile, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+        }
+    }
+
+    // rows firstRow.. of a deeper fractal from the checkpoint tile, row r is row r % s of the tile, repeated for every
+    // block column whose upper digits keep it (s = tile size), the band does not need the rest of the grid
+    private void extendRows(BitGrid tile, BitGrid band, int firstRow, int levels) {
+        int s = tile.rows();
+        int blocks = band.cols() / s;                       // blocks per row, k^(depth - tile depth)
+        long[] words = band.words();
+        for (int i = 0; i < band.rows(); i++) {
+            int row = firstRow + i;
+            long srcBit = (long) tile.rowOffset(row % s) * 64;
+            long dstBit = (long) band.rowOffset(i) * 64;
+            for (int block = 0; block < blocks; block++) {
+                if (rule.contains(block, row / s, levels)) {   // kept on every level above the tile
+                    BitGrid.copyBits(tile.words(), srcBit, words, dstBit + (long) block * s, s);
+                }
+            }
+        }
+    }
+}
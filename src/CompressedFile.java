@@ -0,0 +1,475 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// compressed result file: the grid is split into chunks of chunkRows rows that are compressed independently,
+// so chunks are compressed in parallel and a reader can decode any single chunk
+// layout (little endian): 40 byte header, index with one entry per chunk, chunk data
+//   header: magic, version, depth, rule, grid size, words per row, chunk rows, chunk count, checksum
+//   index entry: offset in the file, compressed length, raw length, checksum of the chunk (24 bytes)
+// a chunk holds its rows as an int reference per row (0: packed row follows, r: same as the row r rows above),
+// deflated as a whole, repeated rows cost 4 bytes and the runs inside a row are left to deflate
+// the checksums are the ones of ResultFile, so the header checksum is the same as in result.bin
+//
+// usage: java CompressedFile compress|decompress|info [input] [output]   (result.bin <-> result.cbin by default)
+public class CompressedFile {
+    public static final String FILE_NAME = "result.cbin";        // compressed output with --compress
+
+    public static final int MAGIC = 0x5A524353;                  // "SCRZ" in little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 40;                    // bytes before the index
+    public static final int INDEX_ENTRY = 24;                    // bytes per chunk in the index
+    private static final int DEFAULT_CHUNK_BYTES = 1 << 22;      // raw rows per chunk, 4 MB
+    private static final int LEVEL = 6;                          // deflate level, more gains almost nothing on these grids
+
+    // header of a compressed file
+    public static final class Header {
+        public final int depth, rule, gridSize, wordsPerRow, chunkRows, chunkCount;
+        public final long checksum;
+
+        public Header(int depth, int rule, int gridSize, int chunkRows, long checksum) {
+            this.depth = depth;
+            this.rule = rule;
+            this.gridSize = gridSize;
+            this.wordsPerRow = BitGrid.wordsFor(gridSize);
+            this.chunkRows = chunkRows;
+            this.chunkCount = (int) ((gridSize + (long) chunkRows - 1) / chunkRows);
+            this.checksum = checksum;
+        }
+
+        // first byte of the chunk data
+        public long dataOffset() {
+            return HEADER_SIZE + (long) chunkCount * INDEX_ENTRY;
+        }
+
+        // rows of a chunk, the last chunk can be smaller
+        public int rowsIn(int chunk) {
+            return (int) Math.min(chunkRows, gridSize - (long) chunk * chunkRows);
+        }
+    }
+
+    // one encoded chunk
+    private static final class Chunk {
+        final byte[] data;
+        final int rawLength;
+        final long checksum;
+        long offset;                       // position in the file, set when it is written
+
+        Chunk(byte[] data, int rawLength, long checksum) {
+            this.data = data;
+            this.rawLength = rawLength;
+            this.checksum = checksum;
+        }
+    }
+
+    // rows per chunk for a grid, from --chunk-rows or the default
+    public static int chunkRowsFor(String[] args, int gridSize) {
+        return Math.max(1, Args.intValue(args, "chunk-rows", defaultChunkRows(gridSize)));
+    }
+
+    // about DEFAULT_CHUNK_BYTES of packed rows per chunk
+    public static int defaultChunkRows(int gridSize) {
+        return Streaming.bandRowsFor(gridSize, DEFAULT_CHUNK_BYTES);
+    }
+
+    // does the file start like a compressed result file
+    public static boolean isCompressed(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return false;                        // shorter than the magic
+                }
+            }
+            return buffer.getInt(0) == MAGIC;
+        }
+    }
+
+    // write a complete grid, the chunks are compressed on the pool
+    public static void write(Path path, BitGrid grid, int depth, int rule, int chunkRows, ForkJoinPool pool) throws IOException {
+        try (Writer writer = new Writer(path, depth, rule, grid.rows(), chunkRows, pool)) {
+            writer.writeRows(grid, 0, grid.rows());
+        }
+    }
+
+    // a complete grid in the file format, for sending it without a file
+    public static byte[] toBytes(BitGrid grid, int depth, int rule, int chunkRows, ForkJoinPool pool) {
+        int wordsPerRow = grid.wordsPerRow();
+        chunkRows = Math.max(1, Math.min(chunkRows, grid.rows()));
+        Header empty = new Header(depth, rule, grid.rows(), chunkRows, 0);
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[empty.chunkCount];
+        for (int c = 0; c < tasks.length; c++) {
+            int first = c * empty.chunkRows;
+            int rows = empty.rowsIn(c);
+            tasks[c] = pool.submit(() -> encode(grid.words(), grid.rowOffset(first), rows, wordsPerRow, first));
+        }
+        Chunk[] chunks = new Chunk[tasks.length];
+        long checksum = 0;
+        long offset = empty.dataOffset();
+        for (int c = 0; c < tasks.length; c++) {
+            chunks[c] = (Chunk) tasks[c].join();
+            chunks[c].offset = offset;
+            offset += chunks[c].data.length;
+            checksum ^= chunks[c].checksum;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) offset);
+        out.writeBytes(headerAndIndex(new Header(depth, rule, grid.rows(), chunkRows, checksum), chunks).array());
+        for (Chunk chunk : chunks) {
+            out.writeBytes(chunk.data);
+        }
+        return out.toByteArray();
+    }
+
+    // compressed file that is filled band by band, full chunks are compressed on the pool while the next rows arrive
+    // and written in order, the index and the header are written on close
+    public static final class Writer implements RowSink {
+        private final FileChannel channel;
+        private final ForkJoinPool pool;
+        private final int depth, rule, gridSize, wordsPerRow, chunkRows;
+        private final Chunk[] chunks;
+        private final ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();   // chunks being compressed, in order
+        private long[] rows;               // rows of the chunk that is being filled
+        private int filled;                // rows in it
+        private int nextChunk;             // chunk that is filled now
+        private int written;               // chunks written to the file
+        private long position;             // end of the chunk data written so far
+        private long raw, compressed;      // bytes before and after compression
+
+        public Writer(Path path, int depth, int rule, int gridSize, int chunkRows, ForkJoinPool pool) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.pool = pool;
+            this.depth = depth;
+            this.rule = rule;
+            this.gridSize = gridSize;
+            this.wordsPerRow = BitGrid.wordsFor(gridSize);
+            this.chunkRows = Math.max(1, Math.min(chunkRows, gridSize));
+            Header header = new Header(depth, rule, gridSize, this.chunkRows, 0);
+            this.chunks = new Chunk[header.chunkCount];
+            this.rows = new long[this.chunkRows * wordsPerRow];
+            this.position = header.dataOffset();          // header and index are written last
+        }
+
+        @Override
+        public void writeRows(BitGrid band, int firstRow, int rowCount) throws IOException {
+            if (firstRow != nextChunk * chunkRows + filled) {
+                throw new IOException("Rows must be written in order, expected row " + (nextChunk * chunkRows + filled) + ", got " + firstRow + ".");
+            }
+            int done = 0;
+            while (done < rowCount) {
+                int count = Math.min(rowCount - done, chunkRows - filled);
+                System.arraycopy(band.words(), band.rowOffset(done), rows, filled * wordsPerRow, count * wordsPerRow);
+                filled += count;
+                done += count;
+                if (filled == chunkRows || nextChunk * chunkRows + filled == gridSize) {
+                    submit();
+                }
+            }
+        }
+
+        // compress the filled chunk in the background, write finished chunks while too many are waiting
+        private void submit() throws IOException {
+            long[] words = rows;
+            int count = filled;
+            int first = nextChunk * chunkRows;
+            pending.add(pool.submit(() -> encode(words, 0, count, wordsPerRow, first)));
+            nextChunk++;
+            filled = 0;
+            rows = new long[chunkRows * wordsPerRow];
+            while (pending.size() > 2 * pool.getParallelism()) {
+                writeNext();
+            }
+        }
+
+        // wait for the oldest chunk and append it to the file
+        private void writeNext() throws IOException {
+            Chunk chunk = pending.poll().join();
+            chunk.offset = position;
+            ByteBuffer buffer = ByteBuffer.wrap(chunk.data);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            raw += chunk.rawLength;
+            compressed += chunk.data.length;
+            chunks[written++] = chunk;
+        }
+
+        // raw and compressed bytes of the chunk data written so far
+        public long rawBytes() {
+            return raw;
+        }
+
+        public long compressedBytes() {
+            return compressed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                while (!pending.isEmpty()) {
+                    writeNext();
+                }
+                if (written != chunks.length) {
+                    throw new IOException("Only " + written + " of " + chunks.length + " chunks were written.");
+                }
+                long checksum = 0;
+                for (Chunk chunk : chunks) {
+                    checksum ^= chunk.checksum;
+                }
+                ByteBuffer buffer = headerAndIndex(new Header(depth, rule, gridSize, chunkRows, checksum), chunks);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, buffer.position());
+                }
+            }
+        }
+    }
+
+    // random access to the chunks of a compressed file
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final Header header;
+        private final long[] offsets;
+        private final int[] lengths, rawLengths;
+        private final long[] checksums;
+
+        public Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                ByteBuffer buffer = readFully(0, HEADER_SIZE);
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    throw new IOException("Not a compressed result file.");
+                }
+                int depth = buffer.getInt();
+                int rule = buffer.getInt();
+                int gridSize = buffer.getInt();
+                int wordsPerRow = buffer.getInt();
+                int chunkRows = buffer.getInt();
+                int chunkCount = buffer.getInt();
+                this.header = new Header(depth, rule, gridSize, Math.max(1, chunkRows), buffer.getLong());
+                if (gridSize < 0 || chunkRows < 1 || wordsPerRow != header.wordsPerRow || chunkCount != header.chunkCount) {
+                    throw new IOException("Compressed result file is damaged, the header does not match.");
+                }
+                if (header.dataOffset() > channel.size()) {      // checked before the index is allocated
+                    throw new IOException("Compressed result file is damaged, corrupt index.");
+                }
+
+                ByteBuffer index = readFully(HEADER_SIZE, chunkCount * INDEX_ENTRY);
+                this.offsets = new long[chunkCount];
+                this.lengths = new int[chunkCount];
+                this.rawLengths = new int[chunkCount];
+                this.checksums = new long[chunkCount];
+                long checksum = 0;
+                for (int c = 0; c < chunkCount; c++) {
+                    offsets[c] = index.getLong();
+                    lengths[c] = index.getInt();
+                    rawLengths[c] = index.getInt();
+                    checksums[c] = index.getLong();
+                    checksum ^= checksums[c];
+                    long maxRaw = (long) header.rowsIn(c) * (Integer.BYTES + (long) header.wordsPerRow * Long.BYTES);
+                    if (lengths[c] < 0 || rawLengths[c] < 0 || rawLengths[c] > maxRaw) {
+                        throw new IOException("Compressed result file is damaged, corrupt index.");
+                    }
+                    if (offsets[c] < header.dataOffset() || offsets[c] > channel.size() - lengths[c]) {
+                        throw new IOException("Compressed result file is damaged, chunk " + c + " is outside of the file.");
+                    }
+                }
+                if (checksum != header.checksum) {
+                    throw new IOException("Compressed result file is damaged, the chunk checksums do not match the header.");
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public Header header() {
+            return header;
+        }
+
+        // decode a chunk into out starting at offset, rowsIn(chunk) * wordsPerRow words, the checksum is verified
+        public void readChunk(int chunk, long[] out, int offset) throws IOException {
+            byte[] data = new byte[lengths[chunk]];
+            readFully(offsets[chunk], data.length).get(data);
+            int rows = header.rowsIn(chunk);
+            decode(data, rawLengths[chunk], out, offset, rows, header.wordsPerRow);
+            long first = (long) chunk * header.chunkRows * header.wordsPerRow;
+            if (ResultFile.checksum(out, offset, rows * header.wordsPerRow, first) != checksums[chunk]) {
+                throw new IOException("Checksum mismatch in chunk " + chunk + ".");
+            }
+        }
+
+        private ByteBuffer readFully(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Compressed result file is too short.");
+                }
+            }
+            return buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // read a complete grid, every chunk is verified
+    public static BitGrid read(Path path) throws IOException {
+        try (Reader reader = new Reader(path)) {
+            Header header = reader.header();
+            BitGrid grid = new BitGrid(header.gridSize);
+            for (int c = 0; c < header.chunkCount; c++) {
+                reader.readChunk(c, grid.words(), grid.rowOffset(c * header.chunkRows));
+            }
+            return grid;
+        }
+    }
+
+    private static ByteBuffer headerAndIndex(Header header, Chunk[] chunks) {
+        ByteBuffer buffer = ByteBuffer.allocate((int) header.dataOffset()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(header.depth).putInt(header.rule).putInt(header.gridSize)
+                .putInt(header.wordsPerRow).putInt(header.chunkRows).putInt(header.chunkCount).putLong(header.checksum);
+        for (Chunk chunk : chunks) {
+            buffer.putLong(chunk.offset).putInt(chunk.data.length).putInt(chunk.rawLength).putLong(chunk.checksum);
+        }
+        return buffer.flip();
+    }
+
+    // encode rowCount rows starting at offset, firstRow is the row of the whole grid (for the checksum)
+    private static Chunk encode(long[] words, int offset, int rowCount, int wordsPerRow, int firstRow) {
+        ByteBuffer raw = ByteBuffer.allocate(rowCount * (Integer.BYTES + wordsPerRow * Long.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+        Map<Integer, Integer> seen = new HashMap<>();        // hash of a row -> last row with that hash
+        for (int i = 0; i < rowCount; i++) {
+            int from = offset + i * wordsPerRow;
+            int hash = hash(words, from, wordsPerRow);
+            Integer previous = seen.put(hash, i);
+            if (previous != null) {
+                int start = offset + previous * wordsPerRow;
+                if (Arrays.equals(words, start, start + wordsPerRow, words, from, from + wordsPerRow)) {
+                    raw.putInt(i - previous);                 // copy of an earlier row
+                    continue;
+                }
+            }
+            raw.putInt(0);
+            raw.asLongBuffer().put(words, from, wordsPerRow);
+            raw.position(raw.position() + wordsPerRow * Long.BYTES);
+        }
+
+        Deflater deflater = new Deflater(LEVEL);
+        deflater.setInput(raw.array(), 0, raw.position());
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.position() / 16 + 64);
+        byte[] buffer = new byte[1 << 16];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        long checksum = ResultFile.checksum(words, offset, rowCount * wordsPerRow, (long) firstRow * wordsPerRow);
+        return new Chunk(out.toByteArray(), raw.position(), checksum);
+    }
+
+    private static int hash(long[] words, int from, int count) {
+        long hash = 0;
+        for (int w = from; w < from + count; w++) {
+            hash = hash * 31 + words[w];
+        }
+        return Long.hashCode(hash);
+    }
+
+    private static void decode(byte[] data, int rawLength, long[] out, int offset, int rowCount, int wordsPerRow) throws IOException {
+        byte[] bytes = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int count = inflater.inflate(bytes, length, rawLength - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            if (length != rawLength) {
+                throw new IOException("Chunk is damaged, " + length + " of " + rawLength + " bytes.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Chunk is damaged: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer raw = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                int ref = raw.getInt();
+                int to = offset + i * wordsPerRow;
+                if (ref == 0) {
+                    raw.asLongBuffer().get(out, to, wordsPerRow);
+                    raw.position(raw.position() + wordsPerRow * Long.BYTES);
+                } else if (ref > 0 && ref <= i) {
+                    System.arraycopy(out, to - ref * wordsPerRow, out, to, wordsPerRow);
+                } else {
+                    throw new IOException("Chunk is damaged, invalid row reference " + ref + ".");
+                }
+            }
+        } catch (RuntimeException e) {                     // buffer ends too early
+            throw new IOException("Chunk is damaged: " + e, e);
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] values = Args.positional(args);
+        String command = values.length > 0 ? values[0] : "info";
+        try {
+            switch (command) {
+                case "compress" -> {
+                    Path in = Paths.get(values.length > 1 ? values[1] : ResultFile.FILE_NAME);
+                    Path out = Paths.get(values.length > 2 ? values[2] : FILE_NAME);
+                    ResultFile.Header header = ResultFile.readHeader(in);
+                    long startTime = System.nanoTime();
+                    write(out, ResultFile.read(in), header.depth, header.rule, chunkRowsFor(args, header.gridSize), ForkJoinPool.commonPool());
+                    System.out.printf("Compressed %s (%d bytes) to %s (%d bytes) in %.3f milliseconds.%n", in, header.fileSize(), out,
+                            Files.size(out), (System.nanoTime() - startTime) / 1_000_000.0);
+                }
+                case "decompress" -> {
+                    Path in = Paths.get(values.length > 1 ? values[1] : FILE_NAME);
+                    Path out = Paths.get(values.length > 2 ? values[2] : ResultFile.FILE_NAME);
+                    Header header;
+                    try (Reader reader = new Reader(in)) {
+                        header = reader.header();
+                    }
+                    ResultFile.write(out, read(in), header.depth, header.rule);
+                    System.out.println("Decompressed " + in + " to " + out + ".");
+                }
+                case "info" -> {
+                    Path in = Paths.get(values.length > 1 ? values[1] : FILE_NAME);
+                    try (Reader reader = new Reader(in)) {
+                        Header header = reader.header();
+                        System.out.printf("%s: depth %d, rule %s, %d x %d cells, %d chunks of %d rows, %d bytes (%d bytes packed)%n",
+                                in, header.depth, Rule.fromCode(header.rule), header.gridSize, header.gridSize, header.chunkCount,
+                                header.chunkRows, Files.size(in), new ResultFile.Header(header.depth, header.rule, header.gridSize, 0).fileSize());
+                    }
+                }
+                default -> System.err.println("Usage: CompressedFile compress|decompress|info [input] [output]");
+            }
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// resident HTTP server, grids, row bands and tiles are computed on one shared ForkJoinPool and kept in an LRU cache,
+// a repeated request is a cache lookup, requests for something that is being computed wait for that computation
+//
+// GET /grid?depth=N[&format=cbin]          whole grid in the result file format (header and packed rows),
+//                                          or chunked and compressed like result.cbin (see CompressedFile)
+// GET /rows?depth=N&from=R&count=C         packed rows R..R+C-1, little endian longs, wordsPerRow longs per row
+// GET /tile?depth=N&level=L&x=X&y=Y        PNG tile, one pixel per k^L x k^L cells (see Tiles)
+// GET /stats                               cache counters as JSON
+// every request except /stats takes &rule=R (name or pattern, see Rule), the carpet by default
+//
+// options: --port=8080, --threads=N (compute pool), --cache=MB (default 256), --kernel-cache=MB (default 128, row kernels),
+//          --max-grid-depth=N (default 9, largest whole grid as depth of the carpet, other rules get the same number of cells,
+//          at most 10, a deeper grid does not fit into one response array)
+public class FractalServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_CACHE = 256;          // MB for cached responses
+    private static final int DEFAULT_KERNEL_CACHE = 128;   // MB for row kernel masks, a kernel of depth 15 takes about 30 MB
+    private static final int DEFAULT_MAX_GRID_DEPTH = 9;   // whole grid of depth 9 is 48 MB
+    private static final int MAX_DEPTH = 15;               // deepest carpet for rows and tiles, RowKernel.MAX_SIZE cells per side
+    private static final int MAX_RESPONSE = 1 << 26;       // largest row band, 64 MB
+
+    private final ForkJoinPool pool;
+    private final LruCache<String, byte[]> cache;
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();  // results being computed
+    private final LruCache<String, RowKernel> kernels;     // row kernel per rule and depth, weighted by its masks
+    private final long maxGridSize;                        // cells per side of the largest whole grid
+    private final AtomicLong computed = new AtomicLong();  // results computed
+    private final AtomicLong shared = new AtomicLong();    // requests that waited for a computation of another request
+
+    // exception for a request with wrong parameters, answered with 400
+    private static final class BadRequest extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BadRequest(String message) {
+            super(message);
+        }
+    }
+
+    public FractalServer(int threads, long cacheBytes, long kernelCacheBytes, int maxGridDepth) {
+        this.pool = new ForkJoinPool(threads);
+        this.cache = new LruCache<>(cacheBytes, bytes -> bytes.length);
+        this.kernels = new LruCache<>(kernelCacheBytes, RowKernel::sizeInBytes);
+        this.maxGridSize = Rule.CARPET.size(maxGridDepth);
+    }
+
+    public static void main(String[] args) {
+        int port = Args.intValue(args, "port", DEFAULT_PORT);
+        int threads = Math.max(1, Args.intValue(args, "threads", Runtime.getRuntime().availableProcessors()));
+        long cacheBytes = Math.max(1, Args.intValue(args, "cache", DEFAULT_CACHE)) * (1L << 20);
+        long kernelCacheBytes = Math.max(1, Args.intValue(args, "kernel-cache", DEFAULT_KERNEL_CACHE)) * (1L << 20);
+        int maxGridDepth = Math.max(0, Args.intValue(args, "max-grid-depth", DEFAULT_MAX_GRID_DEPTH));
+        if (maxGridDepth > largestGridDepth()) {
+            System.err.println("Grid depth is too large. Using maximum value of " + largestGridDepth() + ".");
+            maxGridDepth = largestGridDepth();
+        }
+
+        try {
+            FractalServer server = new FractalServer(threads, cacheBytes, kernelCacheBytes, maxGridDepth);
+            HttpServer http = HttpServer.create(new InetSocketAddress(port), 0);
+            http.createContext("/", server::handle);
+            http.setExecutor(Executors.newFixedThreadPool(2 * threads));   // request threads mostly wait for the pool
+            http.start();
+            System.out.println("Fractal server listening on http://localhost:" + http.getAddress().getPort() + "/");
+            System.out.println("Compute threads: " + threads + ", cache: " + cacheBytes / (1 << 20) + " MB");
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, "text/plain", "Only GET is supported.\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            switch (exchange.getRequestURI().getPath()) {
+                case "/grid" -> grid(exchange, query);
+                case "/rows" -> rows(exchange, query);
+                case "/tile" -> tile(exchange, query);
+                case "/stats" -> send(exchange, 200, "application/json", stats().getBytes(StandardCharsets.UTF_8));
+                default -> send(exchange, 404, "text/plain", "Unknown path, use /grid, /rows, /tile or /stats.\n".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (BadRequest e) {
+            send(exchange, 400, "text/plain", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {  // handle exception
+            e.printStackTrace();
+            send(exchange, 500, "text/plain", ("Internal error: " + e + "\n").getBytes(StandardCharsets.UTF_8));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // whole grid of a depth, computed in row bands on the pool
+    private void grid(HttpExchange exchange, Map<String, String> query) throws IOException {
+        Rule rule = ruleParam(query);
+        int depth = intParam(query, "depth", 0, rule.maxDepth(maxGridSize));
+        String format = query.getOrDefault("format", "bin");
+        if (!format.equals("bin") && !format.equals("cbin")) {
+            throw new BadRequest("Parameter format must be bin or cbin.");
+        }
+        byte[] body = cached(exchange, "grid/" + format + "/" + rule.code() + "/" + depth, () -> {
+            RowKernel kernel = kernel(rule, depth);
+            BitGrid grid = new BitGrid(kernel.size());
+            Parallel.computeBands(pool, kernel, grid, 0, Parallel.autoThreshold(grid.rows(), grid.wordsPerRow(), pool.getParallelism()));
+            return format.equals("cbin")
+                    ? CompressedFile.toBytes(grid, depth, rule.code(), CompressedFile.defaultChunkRows(grid.rows()), pool)
+                    : ResultFile.toBytes(grid, depth, rule.code());
+        });
+        send(exchange, 200, "application/octet-stream", body);
+    }
+
+    // band of rows, without a header, the layout is in the response headers
+    private void rows(HttpExchange exchange, Map<String, String> query) throws IOException {
+        Rule rule = ruleParam(query);
+        int depth = intParam(query, "depth", 0, rule.maxDepth(RowKernel.MAX_SIZE));
+        int gridSize = rule.size(depth);
+        int from = intParam(query, "from", 0, gridSize - 1);
+        int count = intParam(query, "count", 1, gridSize - from);
+        int wordsPerRow = BitGrid.wordsFor(gridSize);
+        if ((long) count * wordsPerRow * Long.BYTES > MAX_RESPONSE) {
+            throw new BadRequest("Too many rows, at most " + MAX_RESPONSE / (wordsPerRow * Long.BYTES) + " rows per request at depth " + depth + ".");
+        }
+        byte[] body = cached(exchange, "rows/" + rule.code() + "/" + depth + "/" + from + "/" + count, () -> {
+            BitGrid band = new BitGrid(count, gridSize);
+            Parallel.computeBands(pool, kernel(rule, depth), band, from, Parallel.autoThreshold(count, wordsPerRow, pool.getParallelism()));
+            ByteBuffer buffer = ByteBuffer.wrap(new byte[band.words().length * Long.BYTES]).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asLongBuffer().put(band.words());
+            return buffer.array();
+        });
+        exchange.getResponseHeaders().set("X-Grid-Size", String.valueOf(gridSize));
+        exchange.getResponseHeaders().set("X-Words-Per-Row", String.valueOf(wordsPerRow));
+        send(exchange, 200, "application/octet-stream", body);
+    }
+
+    // one PNG tile, the same tiles as in the viewer
+    private void tile(HttpExchange exchange, Map<String, String> query) throws IOException {
+        Rule rule = ruleParam(query);
+        int depth = intParam(query, "depth", 0, rule.maxDepth(RowKernel.MAX_SIZE));
+        int level = intParam(query, "level", 0, depth);
+        RowKernel kernel = kernel(rule, depth - level);
+        int tx = intParam(query, "x", 0, Tiles.tilesPerSide(kernel) - 1);
+        int ty = intParam(query, "y", 0, Tiles.tilesPerSide(kernel) - 1);
+        byte[] body = cached(exchange, "tile/" + rule.code() + "/" + depth + "/" + level + "/" + tx + "/" + ty, () -> {
+            try {
+                return pool.submit(() -> png(kernel, level, tx, ty)).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Tile computation failed", e);
+            }
+        });
+        send(exchange, 200, "image/png", body);
+    }
+
+    private static byte[] png(RowKernel kernel, int level, int tx, int ty) {
+        int width = Tiles.extent(kernel, tx);
+        int height = Tiles.extent(kernel, ty);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, Tiles.render(kernel, level, tx, ty), 0, width);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    // result from the cache, from a computation of another request, or computed by this request
+    // X-Cache in the response tells which of the three it was
+    // a result is put into the cache before its future leaves inFlight, so a request always finds it in one of the two
+    private byte[] cached(HttpExchange exchange, String key, Supplier<byte[]> compute) {
+        byte[] bytes = cache.get(key);
+        if (bytes != null) {
+            exchange.getResponseHeaders().set("X-Cache", "hit");
+            return bytes;
+        }
+        CompletableFuture<byte[]> mine = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            shared.incrementAndGet();
+            exchange.getResponseHeaders().set("X-Cache", "shared");
+            return running.join();
+        }
+        try {
+            bytes = cache.get(key);     // finished by another request between the first lookup and putIfAbsent
+            if (bytes != null) {
+                exchange.getResponseHeaders().set("X-Cache", "hit");
+                mine.complete(bytes);
+                return bytes;
+            }
+            exchange.getResponseHeaders().set("X-Cache", "miss");
+            bytes = compute.get();
+            computed.incrementAndGet();
+            cache.put(key, bytes);
+            mine.complete(bytes);
+            return bytes;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    // row kernel from the kernel cache, two requests that miss at the same time may both create it
+    private RowKernel kernel(Rule rule, int depth) {
+        String key = rule.code() + "/" + depth;
+        RowKernel kernel = kernels.get(key);
+        if (kernel == null) {
+            kernel = RowKernel.create(rule, depth);
+            kernels.put(key, kernel);
+        }
+        return kernel;
+    }
+
+    // deepest carpet whose whole grid fits into one byte array, header and packed rows (depth 10)
+    private static int largestGridDepth() {
+        int depth = 0;
+        while (depth < MAX_DEPTH) {
+            long size = Rule.CARPET.size(depth + 1);
+            if (ResultFile.HEADER_SIZE + size * BitGrid.wordsFor((int) size) * Long.BYTES > Integer.MAX_VALUE - 8) {
+                break;
+            }
+            depth++;
+        }
+        return depth;
+    }
+
+    private String stats() {
+        return String.format(Locale.ROOT, "{\"entries\": %d, \"bytes\": %d, \"hits\": %d, \"misses\": %d, \"computed\": %d, \"shared\": %d, "
+                        + "\"inFlight\": %d, \"kernels\": %d, \"kernelBytes\": %d, \"parallelism\": %d, \"steals\": %d}%n",
+                cache.size(), cache.weight(), cache.hits(), cache.misses(), computed.get(), shared.get(),
+                inFlight.size(), kernels.size(), kernels.weight(), pool.getParallelism(), pool.getStealCount());
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    // rule parameter, the carpet if it is missing
+    private static Rule ruleParam(Map<String, String> query) {
+        String value = query.get("rule");
+        if (value == null) {
+            return Rule.CARPET;
+        }
+        try {
+            return Rule.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest(e.getMessage());
+        }
+    }
+
+    // integer parameter in min..max
+    private static int intParam(Map<String, String> query, String name, int min, int max) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new BadRequest("Missing parameter " + name + ".");
+        }
+        try {
+            int number = Integer.parseInt(value);
+            if (number < min || number > max) {
+                throw new BadRequest("Parameter " + name + " must be between " + min + " and " + max + ".");
+            }
+            return number;
+        } catch (NumberFormatException e) {
+            throw new BadRequest("Parameter " + name + " is not a number: " + value);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import javafx.concurrent.Task;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// background task that reads the result file and turns it into pixels, one byte per pixel
+// a grid larger than MAX_IMAGE_SIZE is scaled down, every pixel then holds the share of black cells in its block
+// (0 = white, 255 = black), the file is read band by band (chunk by chunk for result.cbin),
+// so the whole grid is never in memory
+public class ImageLoader extends Task<byte[]> {
+    public static final int MAX_IMAGE_SIZE = 4096;   // largest image side, fits into a texture
+    private static final int BAND_BYTES = 1 << 22;   // memory for one band of rows, 4 MB
+
+    private final Path path;     // result.bin or result.cbin
+
+    private int gridSize;        // cells per row and column of the grid
+    private int factor;          // cells per pixel in each direction
+    private int imageSize;       // pixels per row and column of the image
+    private int[] counts;        // black cells per pixel of the pixel row that is being read
+
+    // constructor, the format of the file is taken from its first bytes
+    public ImageLoader(Path path) {
+        this.path = path;
+    }
+
+    // result file to show, result.bin or else result.cbin, null if there is none
+    public static Path resultPath() {
+        for (String name : new String[]{ResultFile.FILE_NAME, CompressedFile.FILE_NAME}) {
+            if (Files.exists(Paths.get(name))) {
+                return Paths.get(name);
+            }
+        }
+        return null;
+    }
+
+    public int gridSize() {
+        return gridSize;
+    }
+
+    public int imageSize() {
+        return imageSize;
+    }
+
+    public int cellsPerPixel() {
+        return factor;
+    }
+
+    @Override
+    protected byte[] call() throws IOException {
+        if (CompressedFile.isCompressed(path)) {
+            return readCompressed();
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ResultFile.Header header = ResultFile.readHeader(channel);
+            byte[] pixels = start(header.gridSize);
+
+            // bands are a multiple of the pixel block height, so a block never spans two bands
+            int wordsPerRow = header.wordsPerRow;
+            int blocks = Math.max(1, Streaming.bandRowsFor(gridSize, BAND_BYTES) / factor);
+            int bandRows = Math.min(gridSize, blocks * factor);
+            long[] band = new long[bandRows * wordsPerRow];
+            long checksum = 0;
+
+            for (int firstRow = 0; firstRow < gridSize; firstRow += bandRows) {
+                if (isCancelled()) {
+                    return null;
+                }
+                int rowCount = Math.min(bandRows, gridSize - firstRow);
+                ResultFile.readRows(channel, wordsPerRow, firstRow, band, 0, rowCount);
+                checksum ^= ResultFile.checksum(band, 0, rowCount * wordsPerRow, (long) firstRow * wordsPerRow);
+                addRows(band, 0, wordsPerRow, firstRow, rowCount, pixels);
+                updateProgress(firstRow + rowCount, gridSize);
+            }
+            if (checksum != header.checksum) {
+                throw new IOException("Checksum mismatch in " + path + ".");
+            }
+            return pixels;
+        }
+    }
+
+    // same for a compressed file, every chunk is decoded and verified on its own
+    private byte[] readCompressed() throws IOException {
+        try (CompressedFile.Reader reader = new CompressedFile.Reader(path)) {
+            CompressedFile.Header header = reader.header();
+            byte[] pixels = start(header.gridSize);
+            long[] chunk = new long[header.chunkRows * header.wordsPerRow];
+            for (int c = 0; c < header.chunkCount; c++) {
+                if (isCancelled()) {
+                    return null;
+                }
+                int firstRow = c * header.chunkRows;
+                reader.readChunk(c, chunk, 0);
+                addRows(chunk, 0, header.wordsPerRow, firstRow, header.rowsIn(c), pixels);   // a block can span two chunks
+                updateProgress(firstRow + header.rowsIn(c), gridSize);
+            }
+            return pixels;
+        }
+    }
+
+    // pick the scale for a grid and allocate the pixels
+    private byte[] start(int gridSize) {
+        this.gridSize = gridSize;
+        this.factor = Math.max(1, (gridSize + MAX_IMAGE_SIZE - 1) / MAX_IMAGE_SIZE);
+        this.imageSize = gridSize / factor;     // cells that do not fill a whole block are left out
+        this.counts = new int[imageSize];
+        return new byte[imageSize * imageSize];
+    }
+
+    // add the black cells of rowCount packed rows, starting at row firstRow of the grid, to their pixels
+    // a pixel row is written once all factor grid rows of its block have been counted
+    private void addRows(long[] words, int offset, int wordsPerRow, int firstRow, int rowCount, byte[] pixels) {
+        int blockCells = factor * factor;
+        for (int i = 0; i < rowCount; i++) {
+            int row = firstRow + i;
+            int y = row / factor;                            // pixel row of this grid row
+            if (y >= imageSize) {
+                break;
+            }
+            long rowBit = (long) (offset + i * wordsPerRow) * 64;
+            for (int x = 0; x < imageSize; x++) {
+                counts[x] += BitGrid.countBits(words, rowBit + (long) x * factor, factor);
+            }
+            if ((row + 1) % factor == 0) {                   // last row of the block
+                for (int x = 0; x < imageSize; x++) {
+                    pixels[y * imageSize + x] = (byte) ((counts[x] * 255 + blockCells / 2) / blockCells);   // share of black cells
+                    counts[x] = 0;
+                }
+            }
+        }
+    }
+}
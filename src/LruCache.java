@@ -0,0 +1,84 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+// thread safe cache that drops the least recently used entries once the total weight is above a limit
+// the weight of an entry comes from the weigher, e.g. its size in bytes
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);  // access order, oldest first
+    private final ToLongFunction<V> weigher;
+    private final long maxWeight;
+    private long weight;           // sum of the weights of all entries
+    private long hits, misses;     // lookups that found or did not find an entry
+
+    // constructor, maxWeight in the unit of the weigher
+    public LruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    // entry for a key, null if it is not in the cache
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    // add or replace an entry, then drop old entries until the weight fits again
+    // an entry heavier than the whole cache is not stored
+    public synchronized void put(K key, V value) {
+        long w = weigher.applyAsLong(value);
+        if (w > maxWeight) {
+            remove(key);
+            return;
+        }
+        V old = entries.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += w;
+
+        Iterator<Map.Entry<K, V>> oldest = entries.entrySet().iterator();
+        while (weight > maxWeight && oldest.hasNext()) {
+            Map.Entry<K, V> entry = oldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;                  // keep the entry that was just added
+            }
+            weight -= weigher.applyAsLong(entry.getValue());
+            oldest.remove();
+        }
+    }
+
+    public synchronized void remove(K key) {
+        V old = entries.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+}
@@ -1,6 +1,11 @@
 import mpi.*;
-import java.io.*;              // for the file
-import java.util.Arrays;
+import java.io.IOException;
+import java.nio.channels.FileChannel;   // for writing into the shared result file
+import java.nio.file.Path;
+import java.nio.file.Paths;             // for the result file
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;  // for the threads inside each process
 
 public class Main {
 
@@ -8,8 +13,13 @@ public class Main {
     private static final int DEFAULT_GRID_SIZE = 81;  // 3^4
     private static final int DEFAULT_RECURSION_DEPTH = 4;
 
+    // indices of the phases in the timings array of a process, all times in milliseconds
+    private static final int COMPUTE = 0, COMMUNICATION = 1, IO = 2;
+
     public static void main(String[] args) {
 
+        Metrics metrics = Metrics.start("mpi");     // phase timings of this process, reported with --metrics
+
         // try-catch block to handle exceptions
         try {
             MPI.Init(args);      // init MPI
@@ -20,10 +30,12 @@ public class Main {
             int gridSize = DEFAULT_GRID_SIZE;               // default grid size
             int recursionDepth = DEFAULT_RECURSION_DEPTH;   // default depth
 
+            String[] values = Args.positional(args);      // arguments without the --options
+
             // command line argument handling for the recursion depth
-            if (args.length > 0) {                        // if we have arguments
+            if (values.length > 0) {                      // if we have arguments
                 try {
-                    recursionDepth = Integer.parseInt(args[args.length - 1]);    // get the last cmdln arg set it as recursion depth
+                    recursionDepth = Integer.parseInt(values[values.length - 1]);    // get the last cmdln arg set it as recursion depth
                     if (rank == 0) {                                             // if root process
                         System.out.println("Starting distributed computation with depth: " + recursionDepth);
                         System.out.println("Total number of processes: " + size);
@@ -39,32 +51,59 @@ public class Main {
                 }
             }
 
-            // calculate grid size based on recursion depth (3^depth)
-            gridSize = (int) Math.pow(3, recursionDepth);
-
-            // initialize 2d array for the fractal data, for each process
-            int[] data = new int[gridSize * gridSize];
-
-            if (rank == 0) {               // if root process
-                Arrays.fill(data, 0);  // initialize array with 0s
-            }
+            // calculate grid size based on recursion depth (k^depth, 3^depth for the carpet), every process reads --rule itself
+            Rule rule = Rule.fromArgs(args);
+            gridSize = rule.size(recursionDepth);
 
             // broadcast gridSize and recursionDepth from root process to all other processes in the communicator
+            metrics.phase(Metrics.COMMUNICATION);
             MPI.COMM_WORLD.Bcast(new int[]{gridSize}, 0, 1, MPI.INT, 0);            // creates a new array with gridSize and broadcasts it
             MPI.COMM_WORLD.Bcast(new int[]{recursionDepth}, 0, 1, MPI.INT, 0);      // creates a new array with recursionDepth and broadcasts it
             // 0 the starting index, since we are broadcasting only 1 value, integer will be sent, the rank of the root process
 
-            // calculate number of rows each process is responsible for
-            int rowsPerProcess = (gridSize + size - 1) / size;  // num of rows + num of processes - 1 because of 0 indexing, to round in uneven division then divide with num of processes
-            int startRow = rank * rowsPerProcess;  // current process * rows per process = index of the starting row
-            int endRow = Math.min(startRow + rowsPerProcess, gridSize);  // (index of starting row + number of rows per process), grid ensure that it doesn't go over the grid size
+            metrics.phase(Metrics.SETUP);
+
+            // calculate the band of rows each process is responsible for, the first gridSize % size processes get one extra row
+            int startRow = startRowOf(rank, size, gridSize);      // index of the starting row
+            int endRow = startRowOf(rank + 1, size, gridSize);    // starting row of the next process
+
+            // threads per process from --threads, 1 runs the band in the process thread
+            // with more threads, start one process per node instead of one per core
+            int threads = Math.max(1, Args.intValue(args, "threads", 1));
+            if (rank == 0) {
+                System.out.println("Threads per process: " + threads);
+            }
 
+            // initialize packed grid for the band of this process only (all cells start as 0)
+            metrics.phase(Metrics.ALLOCATION);
+            BitGrid data = new BitGrid(endRow - startRow, gridSize);
+
+            metrics.phase(Metrics.COMPUTE);
             long startTime = System.nanoTime();  // start time for computation of pattern
 
-            computeFractal(data, 0, 0, gridSize, recursionDepth, startRow, endRow); // compute the fractal pattern for the current process, withing the range of rows
-            // array to store the data of current process, leftmost coordinate, topmost coordinate, size of current section, level of fractal that should be computed, segment coordinates
+            // with --checkpoints the band is built from the deepest checkpoint, every process reads the checkpoint itself
+            CheckpointCache checkpoints = CheckpointCache.fromArgs(args, rule);
+            int checkpoint = checkpoints == null ? -1 : checkpoints.fill(data, startRow, recursionDepth);
+
+            if (checkpoint >= 0) {
+                if (rank == 0) {
+                    System.out.println("Extended from the checkpoint of depth " + checkpoint + ".");
+                }
+            } else if (threads > 1) {
+                // hybrid mode, the band of this process is split further across a local ForkJoinPool, same tasks as Parallel
+                ForkJoinPool pool = new ForkJoinPool(threads, Metrics.POOL_THREADS, null, false);
+                int threshold = Math.max(1, Args.intValue(args, "threshold", Parallel.autoThreshold(data.rows(), data.wordsPerRow(), threads)));
+                metrics.watchPool(pool);    // longest task queues while the band is computed
+                Parallel.computeBands(pool, RowKernel.create(rule, recursionDepth), data, startRow, threshold);
+                metrics.recordPool(pool);   // steal counts and longest queues of the pool of this process
+                pool.shutdown();
+            } else {
+                computeFractal(data, RowKernel.create(rule, recursionDepth), startRow); // compute the fractal pattern for the current process, withing the range of rows
+                // band to store the data of current process, row kernel for the depth, first row of the band
+            }
 
             long endTime = System.nanoTime();    // End time
+            metrics.stop();
 
             double elapsedTime = (endTime - startTime) / 1_000_000.0; // time calculates in milliseconds, till 3 decimal places
 
@@ -73,24 +112,65 @@ public class Main {
             }
 
 
-            // array in the root process to store the complete grid data after gathering from all processes
-            int[] globalData = new int[gridSize * gridSize];
+            if (Args.hasFlag(args, "parallel-io")) {
+                // every process writes its own band into the result file, no gathering in the root process
+                if (rank == 0 && (Args.hasFlag(args, "text") || Args.hasFlag(args, "compress"))) {
+                    System.err.println("Text export and compression are not available with --parallel-io, writing only the binary file.");
+                }
+                writeParallel(data, startRow, rank, gridSize, recursionDepth, rule, metrics);
+            } else {
+                // grid in the root process to store the complete grid data after gathering from all processes
+                metrics.phase(Metrics.ALLOCATION);
+                BitGrid globalData = rank == 0 ? new BitGrid(gridSize) : null;
+                int wordsPerRow = data.wordsPerRow();   // rows are sent as packed longs, 64 cells per long
+
+                // number of words and position in the global grid for the band of every process
+                int[] counts = new int[size];
+                int[] displacements = new int[size];
+                for (int p = 0; p < size; p++) {
+                    displacements[p] = startRowOf(p, size, gridSize) * wordsPerRow;
+                    counts[p] = startRowOf(p + 1, size, gridSize) * wordsPerRow - displacements[p];
+                }
 
-            // collect the data from all processes and store it in the array in the root process
-            MPI.COMM_WORLD.Gather(data, startRow * gridSize, rowsPerProcess * gridSize, MPI.INT, globalData, 0, rowsPerProcess * gridSize, MPI.INT, 0);
-            // array from each process, starting index of the data array, number of element to send, int, array to store the data, starting index of the global array, number of elements to receive, int, root process
+                // collect the bands from all processes and store them in the grid in the root process
+                metrics.phase(Metrics.COMMUNICATION);
+                MPI.COMM_WORLD.Gatherv(data.words(), 0, counts[rank], MPI.LONG, rank == 0 ? globalData.words() : new long[0], 0, counts, displacements, MPI.LONG, 0);
+                // words of the band, starting index, number of words to send, long, array to store the data, starting index of the global array, words per process, position per process, long, root process
+
+                // if root process, write the result to file (binary or compressed with --compress, text only if requested with --text)
+                if (rank == 0 && Args.hasFlag(args, "compress")) {
+                    metrics.phase(Metrics.WRITE);
+                    CompressedFile.write(Paths.get(CompressedFile.FILE_NAME), globalData, recursionDepth, rule.code(),
+                            CompressedFile.chunkRowsFor(args, gridSize), ForkJoinPool.commonPool());
+                } else if (rank == 0) {
+                    metrics.phase(Metrics.SERIALIZATION);
+                    long checksum = ResultFile.checksum(globalData.words(), 0, globalData.words().length, 0);
+                    metrics.phase(Metrics.WRITE);
+                    ResultFile.write(Paths.get(ResultFile.FILE_NAME), globalData, recursionDepth, rule.code(), checksum);
+                }
+                if (rank == 0 && Args.hasFlag(args, "text")) {
+                    ResultFile.writeText(Paths.get(ResultFile.TEXT_FILE_NAME), globalData);
+                }
+            }
+            metrics.stop();
 
+            // keep the result as checkpoint for the next depth
+            if (rank == 0 && checkpoints != null && (!Args.hasFlag(args, "compress") || Args.hasFlag(args, "parallel-io"))) {
+                checkpoints.store(recursionDepth, Paths.get(ResultFile.FILE_NAME));
+            }
 
-            // if root process, write the result to file
+            if (Args.hasFlag(args, "timings") || Args.hasFlag(args, "metrics")) {
+                // compute, communication and I/O time of this process, gathered in the root process
+                double[] timings = {metrics.time(Metrics.COMPUTE), metrics.time(Metrics.COMMUNICATION),
+                        metrics.time(Metrics.SERIALIZATION) + metrics.time(Metrics.WRITE)};
+                reportTimings(rank, size, timings, Args.hasFlag(args, "timings"), metrics);
+            }
             if (rank == 0) {
-                try (BufferedWriter writer = new BufferedWriter(new FileWriter("result.txt"))) {
-                    for (int i = 0; i < gridSize; i++) {  // go through each row in the grid
-                        for (int j = 0; j < gridSize; j++) {  // go through each column with current row
-                            writer.write(globalData[i * gridSize + j] + " ");  // write value of each cell to the file
-                        }// element at row i and column j in 2D grid is located at index i * gridSize + j in the 1D globalData array
-                        writer.newLine();  // New line after each row
-                    }
-                }
+                metrics.put("depth", recursionDepth);
+                metrics.put("processes", size);
+                metrics.put("threadsPerProcess", threads);
+                metrics.put("bandBytes", data.sizeInBytes());
+                metrics.report(args);
             }
 
             MPI.Finalize();   // finalize MPI, release resources
@@ -99,49 +179,69 @@ public class Main {
         }
     }
 
-    // fractal computation method
-    private static void computeFractal(int[] data, int x, int y, int size, int depth, int startRow, int endRow) {
-        // 1d array to store, sub-grid coordinates, size of current section of grid, recursion level, range of rows to compute
-
-        if (depth == 0) {   // base case, stop condition
-            return;
+    // write the band of this process straight into the shared result file, at the offset of its first row
+    // the root creates the file at its final size and writes the header with the combined checksum
+    private static void writeParallel(BitGrid data, int startRow, int rank, int gridSize, int depth, Rule rule, Metrics metrics) throws IOException, MPIException {
+        Path path = Paths.get(ResultFile.FILE_NAME);
+        metrics.phase(Metrics.WRITE);
+        if (rank == 0) {
+            ResultFile.allocate(path, gridSize);    // empty file, big enough for all rows
         }
+        metrics.phase(Metrics.COMMUNICATION);
+        MPI.COMM_WORLD.Barrier();                   // all processes wait until the file exists
 
-        int newSize = size / 3;       // divide current section of grid into sub-grids
+        metrics.phase(Metrics.WRITE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ResultFile.writeRowsAt(channel, data.wordsPerRow(), startRow, data.words(), 0, data.rows());
+        }
 
-        for (int i = startRow; i < endRow; i++) {   // rows of the grid, assigned to the current process
-            for (int j = 0; j < size; j++) {        // current column for ith row
-                if (isInFractal(i, j, size)) {      // call function to check cell
-                    data[i * size + j] = 1;         // set cell to 1 (black)
-                } else {
-                    data[i * size + j] = 0;         // set cell to 0 (white)
-                }
+        // checksums of the bands are combined with xor in the root process
+        metrics.phase(Metrics.SERIALIZATION);
+        long[] checksum = {ResultFile.checksum(data.words(), 0, data.words().length, (long) startRow * data.wordsPerRow())};
+        long[] total = new long[1];
+        metrics.phase(Metrics.COMMUNICATION);
+        MPI.COMM_WORLD.Reduce(checksum, 0, total, 0, 1, MPI.LONG, MPI.BXOR, 0);
+
+        if (rank == 0) {
+            metrics.phase(Metrics.WRITE);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ResultFile.writeHeader(channel, new ResultFile.Header(depth, rule.code(), gridSize, total[0]));
             }
         }
+        metrics.stop();
+    }
 
-        if (newSize > 0) {                     // check new size
-            int newDepth = depth - 1;          // decrease depth
-            for (int i = 0; i < 3; i++) {      // iterate through sub-grids
-                for (int j = 0; j < 3; j++) {
-                    if (i == 1 && j == 1) {
-                        continue;  // center block is empty
-                    }
-                    computeFractal(data, x + i * newSize, y + j * newSize, newSize, newDepth, startRow, endRow);
-                } // recursive call to compute fractal for each sub-grid
+    // gather the timings of all processes in the root process, they are added to the metrics of the root
+    // with --timings the root also prints one line per process: timing,<rank>,<compute ms>,<communication ms>,<io ms>
+    private static void reportTimings(int rank, int size, double[] timings, boolean print, Metrics metrics) throws MPIException {
+        double[] all = new double[3 * size];
+        MPI.COMM_WORLD.Gather(timings, 0, 3, MPI.DOUBLE, all, 0, 3, MPI.DOUBLE, 0);
+        if (rank == 0) {
+            double[][] perProcess = new double[size][];
+            for (int p = 0; p < size; p++) {
+                perProcess[p] = new double[]{all[3 * p + COMPUTE], all[3 * p + COMMUNICATION], all[3 * p + IO]};
+                if (print) {
+                    System.out.printf(Locale.ROOT, "timing,%d,%.3f,%.3f,%.3f%n", p, all[3 * p + COMPUTE], all[3 * p + COMMUNICATION], all[3 * p + IO]);
+                }
             }
+            metrics.recordRanks(new String[]{"computeMs", "communicationMs", "ioMs"}, perProcess);
         }
     }
 
-    // checks if a cell (x, y) is in the fractal
-    private static boolean isInFractal(int x, int y, int size) {
-        while (size > 0) {
-            if ((x % 3 == 1) && (y % 3 == 1)) {
-                return false;  // center block of current sub-grid
-            }
-            x /= 3;   // go to the next sub-grid
-            y /= 3;
-            size /= 3;    // decrease size
+    // first row of the band of a process, rows are split as evenly as possible
+    // (startRowOf(size, size, gridSize) is gridSize, the end of the last band)
+    static int startRowOf(int rank, int size, int gridSize) {
+        int rowsPerProcess = gridSize / size;             // rows every process gets
+        int extra = gridSize % size;                      // rows left over, one more for the first processes
+        return rank * rowsPerProcess + Math.min(rank, extra);
+    }
+
+    // fractal computation method
+    private static void computeFractal(BitGrid data, RowKernel kernel, int startRow) {
+        // band of rows to store, row kernel that computes 64 cells per step, row of the whole grid stored in row 0 of the band
+
+        for (int i = 0; i < data.rows(); i++) {   // rows of the band, assigned to the current process
+            kernel.computeRow(startRow + i, data.words(), data.rowOffset(i));
         }
-        return true;   // cell is in the fractal, if not center block
     }
 }
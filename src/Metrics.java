@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.locks.LockSupport;
+
+// time and allocated bytes per phase of a run, plus counters, written as JSON
+// enabled with --metrics (JSON on stdout) or --metrics=<file>
+// allocated bytes are summed over the live threads, plus the threads of pools made with POOL_THREADS that have ended,
+// threads of other pools (e.g. the common pool) that end during a phase are missing from its count
+public class Metrics {
+    // phases shared by all engines
+    public static final String SETUP = "setup";                  // argument handling, MPI init
+    public static final String ALLOCATION = "allocation";        // grid allocation
+    public static final String COMPUTE = "compute";
+    public static final String COMMUNICATION = "communication";  // gather and broadcast
+    public static final String SERIALIZATION = "serialization";  // checksum and header of the result file
+    public static final String WRITE = "write";                  // file output
+    public static final String LOAD = "load";                    // reading the result file in the GUI
+
+    private static final long SAMPLE_NANOS = 200_000;             // queue sampling interval of a watched pool, 0.2 ms
+
+    // bytes of the POOL_THREADS workers that have ended, and their ids so they are not counted twice, guarded by EXITED
+    private static final Set<Long> EXITED = ConcurrentHashMap.newKeySet();
+    private static long exitedBytes;
+
+    // thread factory for the ForkJoinPools of the engines, a worker adds its allocated bytes when it ends,
+    // so the pool can be shut down during a phase without losing what its threads allocated
+    public static final ForkJoinPool.ForkJoinWorkerThreadFactory POOL_THREADS = pool -> new ForkJoinWorkerThread(pool) {
+        @Override
+        protected void onTermination(Throwable exception) {
+            if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean && bean.isThreadAllocatedMemoryEnabled()) {
+                synchronized (EXITED) {
+                    exitedBytes += Math.max(0, bean.getCurrentThreadAllocatedBytes());
+                    EXITED.add(threadId());
+                }
+            }
+            super.onTermination(exception);
+        }
+    };
+
+    private final String engine;
+    private final Map<String, double[]> phases = new LinkedHashMap<>();  // name -> {milliseconds, allocated bytes}
+    private final Map<String, Object> values = new LinkedHashMap<>();    // counters and settings
+    private double[][] ranks;                                            // timings of every MPI process
+    private String[] rankPhases;                                         // names of the columns of ranks
+
+    private String current;          // phase that is running, null if none
+    private long currentStart;       // start time of the current phase
+    private long currentBytes;       // allocated bytes at the start of the current phase
+
+    private Thread sampler;                              // samples the queues of the watched pool, null if none
+    private volatile boolean sampling;
+    private long maxQueuedTasks, maxQueuedSubmissions;   // written by the sampler, read after it has ended
+
+    private Metrics(String engine) {
+        this.engine = engine;
+    }
+
+    // metrics of an engine, the setup phase starts right away
+    public static Metrics start(String engine) {
+        Metrics metrics = new Metrics(engine);
+        metrics.phase(SETUP);
+        return metrics;
+    }
+
+    // end the running phase and start the next one, a phase that runs several times is summed up
+    public void phase(String name) {
+        stop();
+        current = name;
+        currentBytes = allocatedBytes();
+        currentStart = System.nanoTime();
+    }
+
+    // end the running phase
+    public void stop() {
+        if (current == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        double[] phase = phases.computeIfAbsent(current, k -> new double[2]);
+        phase[0] += (now - currentStart) / 1_000_000.0;
+        phase[1] += allocatedBytes() - currentBytes;
+        current = null;
+    }
+
+    // time of a phase in milliseconds, 0 if it did not run
+    public double time(String name) {
+        double[] phase = phases.get(name);
+        return phase == null ? 0 : phase[0];
+    }
+
+    // store a counter or setting
+    public void put(String name, Object value) {
+        values.put(name, value);
+    }
+
+    // sample the queue lengths of a pool while it computes, once invoke has returned the queues are empty
+    // the longest queues are kept and reported by recordPool
+    public void watchPool(ForkJoinPool pool) {
+        sampling = true;
+        sampler = new Thread(() -> {
+            while (sampling) {
+                maxQueuedTasks = Math.max(maxQueuedTasks, pool.getQueuedTaskCount());
+                maxQueuedSubmissions = Math.max(maxQueuedSubmissions, pool.getQueuedSubmissionCount());
+                LockSupport.parkNanos(SAMPLE_NANOS);
+            }
+        }, "metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    // work stealing counters of a ForkJoinPool, read while the pool is still running,
+    // and the longest queues seen since watchPool if the pool was watched
+    public void recordPool(ForkJoinPool pool) {
+        put("parallelism", pool.getParallelism());
+        put("poolSize", pool.getPoolSize());
+        put("steals", pool.getStealCount());
+        if (sampler != null) {
+            sampling = false;
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sampler = null;
+            put("maxQueuedTasks", maxQueuedTasks);
+            put("maxQueuedSubmissions", maxQueuedSubmissions);
+        }
+    }
+
+    // timings of every MPI process, one row per process, one column per phase
+    public void recordRanks(String[] phaseNames, double[][] timings) {
+        this.rankPhases = phaseNames;
+        this.ranks = timings;
+    }
+
+    // bytes allocated so far by all live threads and by the POOL_THREADS workers that have ended, -1 if the JVM cannot tell
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean bean) || !bean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        synchronized (EXITED) {
+            long total = exitedBytes;
+            long[] ids = bean.getAllThreadIds();
+            long[] allocated = bean.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (allocated[i] > 0 && !EXITED.contains(ids[i])) {   // a worker that is ending may still be listed
+                    total += allocated[i];
+                }
+            }
+            return total;
+        }
+    }
+
+    // all metrics as JSON
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"engine\": ").append(quote(engine)).append(",\n  \"phases\": {");
+        String separator = "\n";
+        for (Map.Entry<String, double[]> phase : phases.entrySet()) {
+            json.append(separator).append(String.format(Locale.ROOT, "    %s: {\"ms\": %.3f, \"allocatedBytes\": %d}",
+                    quote(phase.getKey()), phase.getValue()[0], (long) phase.getValue()[1]));
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"allocatedBytesScope\": \"live threads and ended engine pool threads, not ended threads of other pools\"");
+        json.append(",\n  \"values\": {");
+        separator = "\n";
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            Object v = value.getValue();
+            json.append(separator).append("    ").append(quote(value.getKey())).append(": ")
+                    .append(v instanceof Number || v instanceof Boolean ? v.toString() : quote(String.valueOf(v)));
+            separator = ",\n";
+        }
+        json.append("\n  }");
+        if (ranks != null) {
+            json.append(",\n  \"ranks\": [");
+            for (int p = 0; p < ranks.length; p++) {
+                json.append(p == 0 ? "\n" : ",\n").append("    {\"rank\": ").append(p);
+                for (int i = 0; i < rankPhases.length; i++) {
+                    json.append(String.format(Locale.ROOT, ", %s: %.3f", quote(rankPhases[i]), ranks[p][i]));
+                }
+                json.append("}");
+            }
+            json.append("\n  ]");
+        }
+        return json.append("\n}\n").toString();
+    }
+
+    // JSON string, quotes, backslashes and control characters escaped
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // write the JSON if --metrics was given, to the file of --metrics=<file> or to stdout
+    public void report(String[] args) {
+        stop();
+        if (!Args.hasFlag(args, "metrics")) {
+            return;
+        }
+        String file = Args.value(args, "metrics", null);
+        if (file == null) {
+            System.out.print(toJson());
+            return;
+        }
+        try {
+            Files.writeString(Paths.get(file), toJson());
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+        }
+    }
+}
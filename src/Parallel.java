@@ -1,22 +1,29 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.ForkJoinPool;
 
 public class Parallel {
     private static final int DEFAULT_RECURSION_DEPTH = 4;  // default depth
-    private static final ForkJoinPool pool = new ForkJoinPool();  // ForkJoinPool for parallel tasks
+    private static final int MIN_TASK_WORDS = 1 << 12;     // smallest band worth a task, 32 KB of output
+    private static final int TASKS_PER_THREAD = 8;         // bands per thread, leaves room for work stealing
 
     public static void main(String[] args) {
+        Metrics metrics = Metrics.start("parallel");     // phase timings, reported with --metrics
 
         // set default recursion depth
         int recursionDepth = DEFAULT_RECURSION_DEPTH;
 
+        String[] values = Args.positional(args);   // arguments without the --options
+
         // command line argument handling for the recursion depth
-        if (args.length > 0) {
+        if (values.length > 0) {
             try {
-                recursionDepth = Integer.parseInt(args[0]);  // read recursion depth from the first argument
+                recursionDepth = Integer.parseInt(values[0]);  // read recursion depth from the first argument
+                if (recursionDepth > Sequential.MAX_RECURSION_DEPTH) {   // same limit as Sequential, deeper grids need Streaming
+                    System.err.println("Recursion depth is too large. Using maximum value of " + Sequential.MAX_RECURSION_DEPTH + ".");
+                    recursionDepth = Sequential.MAX_RECURSION_DEPTH;
+                }
             } catch (NumberFormatException e) {
                 System.err.println("Invalid recursion depth. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
             }
@@ -24,114 +31,142 @@ public class Parallel {
             System.out.println("No recursion depth argument provided. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
         }
 
-        // calculate grid size based on recursion depth
-        long gridSize = (long) Math.pow(3, recursionDepth);
+        // calculate grid size based on recursion depth and the rule from --rule (the carpet by default)
+        // rules with 4 or 5 blocks per side reach the size limit of a grid before MAX_RECURSION_DEPTH
+        Rule rule = Rule.fromArgs(args);
+        metrics.phase(Metrics.ALLOCATION);
+        BitGrid data;   // packed grid for storing fractal data, one bit per cell
+        try {
+            data = new BitGrid(rule.size(recursionDepth));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " Use Streaming for this depth.");
+            return;
+        }
+
+        // number of threads from --threads, all processors by default
+        int threads = Math.max(1, Args.intValue(args, "threads", Runtime.getRuntime().availableProcessors()));
+        ForkJoinPool pool = new ForkJoinPool(threads, Metrics.POOL_THREADS, null, false);  // ForkJoinPool for parallel tasks, workers report their allocations
 
-        // array for storing fractal data
-        int[] data = new int[(int) (gridSize * gridSize)];
+        // rows per task from --threshold, tuned from the grid size and the number of threads by default
+        int threshold = Math.max(1, Args.intValue(args, "threshold", autoThreshold(data.rows(), data.wordsPerRow(), threads)));
+        metrics.put("threshold", threshold);
 
-        System.out.println("Starting parallel computation with depth: " + recursionDepth);
+        System.out.println("Starting parallel computation with depth: " + recursionDepth + ", rule: " + rule);
 
         // print the number of threads in the ForkJoinPool
         System.out.println("Number of threads in ForkJoinPool: " + pool.getParallelism());
+        System.out.println("Rows per task: " + threshold);
 
         // track time for computing
+        metrics.phase(Metrics.COMPUTE);
+        metrics.watchPool(pool);    // longest task queues while the bands are computed
         long startTime = System.nanoTime();
 
-        // start parallel computation from (0, 0) with size of current grid and depth of recursion and store in data array
-        pool.invoke(new ComputeTask(data, 0, 0, (int) gridSize, recursionDepth));
+        // build the grid from the deepest checkpoint with --checkpoints,
+        // otherwise split the rows of the grid into bands and compute them in parallel
+        CheckpointCache checkpoints = CheckpointCache.fromArgs(args, rule);
+        int checkpoint = checkpoints == null ? -1 : checkpoints.fill(data, 0, recursionDepth);
+        if (checkpoint < 0) {
+            computeBands(pool, RowKernel.create(rule, recursionDepth), data, 0, threshold);
+        }
 
         long endTime = System.nanoTime();
+        metrics.stop();
 
         // calculate time in ms with three decimal places
         double elapsedTime = (endTime - startTime) / 1_000_000.0;
         System.out.printf("Parallel computation completed in %.3f milliseconds.%n", elapsedTime);
+        if (checkpoint >= 0) {
+            System.out.println("Extended from the checkpoint of depth " + checkpoint + ".");
+        }
+
+        metrics.recordPool(pool);   // steal and queue counts, while the pool is still up
 
-        // write result to file
-        writeToFile(data, (int)gridSize);
+        // write result to file (result.cbin with --compress, compressed on the same pool), and keep it as checkpoint for the next depth
+        boolean compress = Args.hasFlag(args, "compress");
+        writeToFile(data, recursionDepth, rule, Args.hasFlag(args, "text"), compress ? CompressedFile.chunkRowsFor(args, data.rows()) : 0, pool, metrics);
+        pool.shutdown();
+        if (checkpoints != null && !compress) {
+            checkpoints.store(recursionDepth, Paths.get(ResultFile.FILE_NAME));
+        }
+        metrics.put("checkpoint", checkpoint);
+
+        metrics.put("depth", recursionDepth);
+        metrics.put("gridBytes", data.sizeInBytes());
+        metrics.report(args);
+    }
+
+    // compute all rows of a grid in parallel, the grid holds rows firstRow.. of the whole fractal
+    // (firstRow is 0 for a full grid, the start of the band for a band of rows)
+    public static void computeBands(ForkJoinPool pool, RowKernel kernel, BitGrid data, int firstRow, int threshold) {
+        pool.invoke(new ComputeTask(data, kernel, firstRow, 0, data.rows(), threshold));
+    }
+
+    // rows per task: about TASKS_PER_THREAD bands per thread, but no band smaller than MIN_TASK_WORDS
+    public static int autoThreshold(int rows, int wordsPerRow, int threads) {
+        int perThread = rows / (threads * TASKS_PER_THREAD);               // rows for an even split
+        int minimum = (MIN_TASK_WORDS + wordsPerRow - 1) / wordsPerRow;    // rows for a band worth a task
+        return Math.max(1, Math.min(rows, Math.max(perThread, minimum)));
     }
 
     // RecursiveAction because we don't need to return a result
+    // every task owns the rows from..to of the grid, each row is written exactly once
+    // tasks are never serialized, RecursiveAction is only Serializable through ForkJoinTask
+    @SuppressWarnings("serial")
     private static class ComputeTask extends RecursiveAction {
-        private final int[] data;               // store fractal data
-        private final int x, y, size, depth;
+
+        private final BitGrid data;             // store fractal data
+        private final RowKernel kernel;         // computes the rows, shared by all tasks
+        private final int firstRow;             // row of the fractal that is stored in row 0 of the grid
+        private final int from, to;             // rows of the grid of this task
+        private final int threshold;            // compute directly if there are not more rows than this
 
         // constructor
-        ComputeTask(int[] data, int x, int y, int size, int depth) {
+        ComputeTask(BitGrid data, RowKernel kernel, int firstRow, int from, int to, int threshold) {
             this.data = data;
-            this.x = x;
-            this.y = y;
-            this.size = size;
-            this.depth = depth;
+            this.kernel = kernel;
+            this.firstRow = firstRow;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
         }
 
         // compute method
         @Override
         protected void compute() {
 
-            if (depth == 0) {    // base case, stop condition
-                return;
-            }
-
-            int newSize = size / 3;   // next subgrid size
-
-            // ensure that the x and y indices are within the grid bounds
-            if (x < 0 || y < 0 || x + size > (int) Math.pow(3, depth) || y + size > (int) Math.pow(3, depth)) {
-                return;
-            }
-
-            for (int i = 0; i < size; i++) {                                             // go through current grid
-                for (int j = 0; j < size; j++) {
-                    if (isInFractal(i, j, size)) {                                       // call helper method
-                        data[(y + i) * (int) Math.pow(3, depth) + (x + j)] = 1;          // set to 1 (black)
-                    } else {
-                        data[(y + i) * (int) Math.pow(3, depth) + (x + j)] = 0;          // set to 0 (white)
-                    }
+            if (to - from <= threshold) {    // small enough, compute the band sequentially
+                for (int i = from; i < to; i++) {
+                    kernel.computeRow(firstRow + i, data.words(), data.rowOffset(i));
                 }
+                return;
             }
 
-            if (newSize > 0) {
-                int newDepth = depth - 1;                     // decrease depth
-                ComputeTask[] tasks = new ComputeTask[8];     // array to store 8 sub-grids to work on, excluding center block
-                int taskIndex = 0;
-                for (int i = 0; i < 3; i++) {                 // iterate through sub-grids
-                    for (int j = 0; j < 3; j++) {
-                        if (i == 1 && j == 1) {
-                            continue;  // skip the center block
-                        }
-                        tasks[taskIndex++] = new ComputeTask(data, x + i * newSize, y + j * newSize, newSize, newDepth);
-                        // recursive call to compute fractal for each sub-grid, increment task index for next task
-                    }
-                }
-                invokeAll(tasks); // takes an array of tasks and invokes them in parallel
-                // each task will execute compute method independently on its respective sub-grid
-            }
+            int middle = (from + to) >>> 1;  // split the band in two halves
+            invokeAll(new ComputeTask(data, kernel, firstRow, from, middle, threshold),
+                    new ComputeTask(data, kernel, firstRow, middle, to, threshold));
+            // each half is split again until the bands are small enough
         }
     }
 
-    private static boolean isInFractal(int x, int y, int size) {
-        while (size > 0) {
-            if ((x % 3 == 1) && (y % 3 == 1)) {
-                return false;  // center block of current sub-grid
+    // write result to the binary file, compressed in chunks of chunkRows rows if chunkRows > 0, and to the text file if requested with --text
+    private static void writeToFile(BitGrid data, int depth, Rule rule, boolean text, int chunkRows, ForkJoinPool pool, Metrics metrics) {
+        boolean compress = chunkRows > 0;
+        try {
+            metrics.phase(Metrics.SERIALIZATION);
+            long checksum = compress ? 0 : ResultFile.checksum(data.words(), 0, data.words().length, 0);   // chunks have their own
+            metrics.phase(Metrics.WRITE);
+            if (compress) {
+                CompressedFile.write(Paths.get(CompressedFile.FILE_NAME), data, depth, rule.code(), chunkRows, pool);
+            } else {
+                ResultFile.write(Paths.get(ResultFile.FILE_NAME), data, depth, rule.code(), checksum);
             }
-            x /= 3;   // go to the next sub-grid
-            y /= 3;
-            size /= 3;    // decrease size
-        }
-        return true;   // cell is in the fractal, if not center block
-    }
-
-    // write result to file
-    private static void writeToFile(int[] data, int gridSize) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("result.txt"))) {
-            for (int i = 0; i < gridSize; i++) {                      // go through the result array
-                for (int j = 0; j < gridSize; j++) {
-                    writer.write(data[i * gridSize + j] + " ");
-                }
-                writer.newLine();
+            if (text) {
+                ResultFile.writeText(Paths.get(ResultFile.TEXT_FILE_NAME), data);
             }
         } catch (IOException e) {  // handle exception
             e.printStackTrace();
         }
+        metrics.stop();
     }
 }
@@ -0,0 +1,380 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// headless PNG export, the grid is produced band by band and written scanline by scanline, so the memory use is
+// a few row bands whatever the depth
+// rows come from the row kernel (default) or from result.bin / result.cbin with --from=<file>
+// every band is split into strips, one per tile, that are filtered and deflated in parallel on a ForkJoinPool,
+// each strip is a raw deflate block ending on a byte boundary, so the strips are simply appended to one zlib stream
+// (the adler32 of the stream is combined from the strips)
+//
+// one cell per pixel gives a 1 bit grayscale PNG (filled cells black), --scale=F puts F x F cells into a pixel
+// and gives 8 bit gray, as dark as the share of filled cells
+// --tile=N splits the image into N x N pixel tiles <out>-<row>-<column>.png (N is rounded up to a multiple of 64)
+//
+// usage: java PngExport <depth> [--rule=R] [--from=file] [--scale=F] [--tile=N] [--out=result.png] [--threads=N]
+public class PngExport {
+    private static final int DEFAULT_RECURSION_DEPTH = 4;  // default depth
+    private static final String DEFAULT_OUT = "result.png";
+    private static final int BAND_BYTES = 1 << 22;         // memory for one band of cells, 4 MB
+    private static final int LEVEL = 6;                    // deflate level
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    // rows of the grid, read band by band from the top
+    private abstract static class BandSource implements Closeable {
+        final int gridSize;
+
+        BandSource(int gridSize) {
+            this.gridSize = gridSize;
+        }
+
+        // rows firstRow.. of the grid into rows 0.. of the band
+        abstract void read(BitGrid band, int firstRow, int rowCount) throws IOException;
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    // one encoded strip
+    private static final class Strip {
+        final byte[] data;                 // raw deflate data, ends on a byte boundary
+        final int adler;                   // adler32 of the filtered rows
+        final long length;                 // bytes of the filtered rows
+
+        Strip(byte[] data, int adler, long length) {
+            this.data = data;
+            this.adler = adler;
+            this.length = length;
+        }
+    }
+
+    public static void main(String[] args) {
+        int recursionDepth = DEFAULT_RECURSION_DEPTH;
+        String[] values = Args.positional(args);   // arguments without the --options
+        if (values.length > 0) {
+            try {
+                recursionDepth = Integer.parseInt(values[0]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid recursion depth. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
+            }
+        }
+        int scale = Math.max(1, Args.intValue(args, "scale", 1));
+        int tile = Math.max(0, Args.intValue(args, "tile", 0));
+        int threads = Math.max(1, Args.intValue(args, "threads", Runtime.getRuntime().availableProcessors()));
+        Path out = Paths.get(Args.value(args, "out", DEFAULT_OUT));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        long startTime = System.nanoTime();
+        try (BandSource source = Args.hasFlag(args, "from")
+                ? fileSource(Paths.get(Args.value(args, "from", ResultFile.FILE_NAME)))
+                : kernelSource(RowKernel.create(Rule.fromArgs(args), recursionDepth), pool)) {
+            int gridSize = source.gridSize;
+            System.out.println("Exporting " + gridSize + " x " + gridSize + " cells, " + scale + " x " + scale + " cells per pixel");
+            int files = export(source, gridSize, scale, tile, out, pool);
+            System.out.printf("PNG export of %d file(s) completed in %.3f milliseconds.%n", files, (System.nanoTime() - startTime) / 1_000_000.0);
+        } catch (IOException | IllegalArgumentException e) {  // handle exception
+            e.printStackTrace();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // rows computed by the row kernel, the bands are split across the pool like in Parallel
+    private static BandSource kernelSource(RowKernel kernel, ForkJoinPool pool) {
+        return new BandSource(kernel.size()) {
+            @Override
+            void read(BitGrid band, int firstRow, int rowCount) {
+                BitGrid rows = rowCount == band.rows() ? band : new BitGrid(rowCount, band.cols());
+                Parallel.computeBands(pool, kernel, rows, firstRow, Parallel.autoThreshold(rowCount, rows.wordsPerRow(), pool.getParallelism()));
+                if (rows != band) {
+                    System.arraycopy(rows.words(), 0, band.words(), 0, rows.words().length);
+                }
+            }
+        };
+    }
+
+    // rows read from result.bin, or decoded chunk by chunk from result.cbin, checksums are verified
+    private static BandSource fileSource(Path path) throws IOException {
+        if (CompressedFile.isCompressed(path)) {
+            CompressedFile.Reader reader = new CompressedFile.Reader(path);
+            CompressedFile.Header header = reader.header();
+            return new BandSource(header.gridSize) {
+                private final long[] chunk = new long[header.chunkRows * header.wordsPerRow];
+                private int current = -1;            // chunk in the buffer
+
+                @Override
+                void read(BitGrid band, int firstRow, int rowCount) throws IOException {
+                    for (int i = 0; i < rowCount; i++) {
+                        int row = firstRow + i;
+                        if (row / header.chunkRows != current) {
+                            current = row / header.chunkRows;
+                            reader.readChunk(current, chunk, 0);
+                        }
+                        System.arraycopy(chunk, (row % header.chunkRows) * header.wordsPerRow, band.words(), band.rowOffset(i), header.wordsPerRow);
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ResultFile.Header header;
+        try {
+            header = ResultFile.readHeader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new BandSource(header.gridSize) {
+            private long checksum;
+            private int rowsRead;
+
+            @Override
+            void read(BitGrid band, int firstRow, int rowCount) throws IOException {
+                ResultFile.readRows(channel, header.wordsPerRow, firstRow, band.words(), 0, rowCount);
+                checksum ^= ResultFile.checksum(band.words(), 0, rowCount * header.wordsPerRow, (long) firstRow * header.wordsPerRow);
+                rowsRead += rowCount;
+                if (rowsRead == header.gridSize && checksum != header.checksum) {   // every row is read exactly once
+                    throw new IOException("Checksum mismatch in " + path + ".");
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    // write the image, or its tiles, returns the number of files
+    private static int export(BandSource source, int gridSize, int scale, int tile, Path out, ForkJoinPool pool) throws IOException {
+        int imageSize = (gridSize + scale - 1) / scale;                  // pixels per side, the last pixel can cover fewer cells
+        int tileSize = tile == 0 ? imageSize : Math.min(imageSize, (tile + 63) / 64 * 64);
+        int tiles = (imageSize + tileSize - 1) / tileSize;              // tiles per side
+        int bitDepth = scale == 1 ? 1 : 8;
+        // pixel rows per band, the band is a whole number of pixel rows and never spans two tile rows
+        int stripRows = Math.max(1, Math.min(tileSize, Streaming.bandRowsFor(gridSize, BAND_BYTES) / scale));
+        ArrayDeque<ForkJoinTask<Strip>> pending = new ArrayDeque<>();   // strips being encoded, in order
+        ArrayDeque<Png> pendingFiles = new ArrayDeque<>();               // file of each pending strip
+
+        for (int ty = 0; ty < tiles; ty++) {
+            int top = ty * tileSize;
+            int bottom = Math.min(imageSize, top + tileSize);
+            Png[] files = new Png[tiles];
+            for (int tx = 0; tx < tiles; tx++) {
+                int width = Math.min(tileSize, imageSize - tx * tileSize);
+                files[tx] = new Png(tiles == 1 ? out : tilePath(out, ty, tx), width, bottom - top, bitDepth);
+            }
+            for (int y = top; y < bottom; y += stripRows) {
+                int rows = Math.min(stripRows, bottom - y);
+                int firstCell = y * scale;
+                int cellRows = Math.min(rows * scale, gridSize - firstCell);
+                BitGrid band = new BitGrid(Math.min(stripRows * scale, gridSize), gridSize);   // new band, pending strips still read the old one
+                source.read(band, firstCell, cellRows);
+                boolean last = y + rows == bottom;
+                for (int tx = 0; tx < tiles; tx++) {
+                    int left = tx * tileSize;
+                    int width = files[tx].width;
+                    pending.add(pool.submit(() -> encode(band, gridSize, cellRows, scale, left, width, last)));
+                    pendingFiles.add(files[tx]);
+                }
+                while (pending.size() > 2 * pool.getParallelism()) {
+                    pendingFiles.poll().write(pending.poll().join());
+                }
+            }
+            while (!pending.isEmpty()) {
+                pendingFiles.poll().write(pending.poll().join());
+            }
+            for (Png file : files) {
+                file.close();
+            }
+        }
+        return tiles * tiles;
+    }
+
+    private static Path tilePath(Path out, int row, int column) {
+        String name = out.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return out.resolveSibling(base + "-" + row + "-" + column + ".png");
+    }
+
+    // filter and deflate the pixel rows of a band for the columns left..left+width-1 of the image
+    // the first row has no filter, the others use the up filter, so a repeated row becomes a run of zeros
+    private static Strip encode(BitGrid band, int gridSize, int cellRows, int scale, int left, int width, boolean last) {
+        int rows = (cellRows + scale - 1) / scale;
+        int rowBytes = scale == 1 ? (width + 7) / 8 : width;
+        byte[] previous = new byte[rowBytes];
+        byte[] current = new byte[rowBytes];
+        byte[] filtered = new byte[rows * (rowBytes + 1)];
+        for (int r = 0; r < rows; r++) {
+            if (scale == 1) {
+                pixelsOneBit(band, r, left, width, current);
+            } else {
+                pixelsGray(band, gridSize, r * scale, Math.min(scale, cellRows - r * scale), scale, left, width, current);
+            }
+            int at = r * (rowBytes + 1);
+            filtered[at] = (byte) (r == 0 ? 0 : 2);                  // filter type none or up
+            for (int i = 0; i < rowBytes; i++) {
+                filtered[at + 1 + i] = (byte) (r == 0 ? current[i] : current[i] - previous[i]);
+            }
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered);
+        Deflater deflater = new Deflater(LEVEL, true);               // raw deflate, the zlib wrapper is written by Png
+        deflater.setInput(filtered);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(filtered.length / 16 + 64);
+        byte[] buffer = new byte[1 << 16];
+        if (last) {
+            deflater.finish();                                       // final block of the stream
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } else {
+            int count;
+            do {                                                     // flush to a byte boundary, the next strip follows
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, count);
+            } while (count == buffer.length);
+        }
+        deflater.end();
+        return new Strip(out.toByteArray(), (int) adler.getValue(), filtered.length);
+    }
+
+    // one cell per pixel, 8 pixels per byte with the first pixel in the high bit, 0 is black
+    private static void pixelsOneBit(BitGrid band, int row, int left, int width, byte[] out) {
+        long[] words = band.words();
+        int first = band.rowOffset(row) + (left >>> 6);             // left is a multiple of 64
+        for (int i = 0; i < out.length; i++) {
+            int bits = (int) (words[first + (i >>> 3)] >>> ((i & 7) * 8)) & 0xFF;
+            out[i] = (byte) ~(Integer.reverse(bits) >>> 24);         // cells are stored lowest column first
+        }
+        if ((width & 7) != 0) {
+            out[out.length - 1] |= (byte) (0xFF >>> (width & 7));    // padding bits after the last pixel stay white
+        }
+    }
+
+    // scale x scale cells per pixel (fewer at the right and bottom edge), gray from the share of filled cells
+    private static void pixelsGray(BitGrid band, int gridSize, int firstRow, int rowCount, int scale, int left, int width, byte[] out) {
+        int[] counts = new int[width];
+        for (int r = firstRow; r < firstRow + rowCount; r++) {
+            long rowBit = (long) band.rowOffset(r) * 64;
+            for (int x = 0; x < width; x++) {
+                int cell = (left + x) * scale;
+                counts[x] += BitGrid.countBits(band.words(), rowBit + cell, Math.min(scale, gridSize - cell));
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            int cells = rowCount * Math.min(scale, gridSize - (left + x) * scale);
+            out[x] = (byte) (255 - (counts[x] * 255 + cells / 2) / cells);
+        }
+    }
+
+    // PNG file that is written strip by strip: signature and header, the zlib header, one IDAT chunk per strip,
+    // and on close the adler32 of the whole stream and the end chunk
+    private static final class Png implements Closeable {
+        private final OutputStream out;
+        private final int width;
+        private int adler = 1;             // adler32 of all filtered rows so far
+
+        Png(Path path, int width, int height, int bitDepth) throws IOException {
+            this.out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16);
+            this.width = width;
+            out.write(SIGNATURE);
+            byte[] header = new byte[13];
+            putInt(header, 0, width);
+            putInt(header, 4, height);
+            header[8] = (byte) bitDepth;
+            header[9] = 0;                 // grayscale
+            header[10] = 0;                // deflate
+            header[11] = 0;                // adaptive filters
+            header[12] = 0;                // no interlace
+            chunk("IHDR", header);
+            chunk("IDAT", new byte[]{0x78, (byte) 0x9C});   // zlib header, deflate with a 32 KB window
+        }
+
+        void write(Strip strip) throws IOException {
+            chunk("IDAT", strip.data);
+            adler = combineAdler(adler, strip.adler, strip.length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (out) {
+                byte[] trailer = new byte[4];
+                putInt(trailer, 0, adler);
+                chunk("IDAT", trailer);
+                chunk("IEND", new byte[0]);
+            }
+        }
+
+        private void chunk(String type, byte[] data) throws IOException {
+            byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+            byte[] length = new byte[4];
+            putInt(length, 0, data.length);
+            CRC32 crc = new CRC32();
+            crc.update(typeBytes);
+            crc.update(data);
+            byte[] check = new byte[4];
+            putInt(check, 0, (int) crc.getValue());
+            out.write(length);
+            out.write(typeBytes);
+            out.write(data);
+            out.write(check);
+        }
+    }
+
+    // adler32 of two byte sequences from the adler32 of each and the length of the second (as adler32_combine of zlib)
+    static int combineAdler(int adler1, int adler2, long length2) {
+        final int base = 65521;
+        long rem = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = rem * sum1 % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= 2L * base) {
+            sum2 -= 2L * base;
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return (int) (sum1 | sum2 << 16);
+    }
+
+    // big endian int, as everywhere in PNG
+    private static void putInt(byte[] bytes, int at, int value) {
+        bytes[at] = (byte) (value >>> 24);
+        bytes[at + 1] = (byte) (value >>> 16);
+        bytes[at + 2] = (byte) (value >>> 8);
+        bytes[at + 3] = (byte) value;
+    }
+}
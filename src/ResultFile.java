@@ -0,0 +1,313 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// binary result file: 32 byte header followed by the packed rows of a BitGrid
+// header (little endian): magic, version, depth, rule, grid size, words per row, checksum
+// rows are stored exactly like in BitGrid, wordsPerRow longs per row
+// whole grids are written and read through memory mapping, bands of Writer with positional writes (see Writer)
+public class ResultFile {
+    public static final String FILE_NAME = "result.bin";        // default binary output
+    public static final String TEXT_FILE_NAME = "result.txt";   // optional text export
+
+    public static final int MAGIC = 0x50524353;                 // "SCRP" in little endian
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;                   // bytes before the first row
+
+    private static final long MAP_CHUNK = 1L << 28;             // map at most 256 MB at once
+    private static final int WRITE_BUFFER = 1 << 20;            // buffer for positional writes, 1 MB
+
+    // header of a result file
+    public static final class Header {
+        public final int depth, rule, gridSize, wordsPerRow;
+        public final long checksum;
+
+        public Header(int depth, int rule, int gridSize, long checksum) {
+            this.depth = depth;
+            this.rule = rule;
+            this.gridSize = gridSize;
+            this.wordsPerRow = BitGrid.wordsFor(gridSize);
+            this.checksum = checksum;
+        }
+
+        // size of the whole file in bytes
+        public long fileSize() {
+            return HEADER_SIZE + (long) gridSize * wordsPerRow * Long.BYTES;
+        }
+    }
+
+    // write a complete grid
+    public static void write(Path path, BitGrid grid, int depth, int rule) throws IOException {
+        write(path, grid, depth, rule, checksum(grid.words(), 0, grid.words().length, 0));
+    }
+
+    // write a complete grid whose checksum is already known
+    public static void write(Path path, BitGrid grid, int depth, int rule, long checksum) throws IOException {
+        Header header = new Header(depth, rule, grid.rows(), checksum);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(channel, header);
+            writeRows(channel, header.wordsPerRow, 0, grid.words(), 0, grid.rows());
+        }
+    }
+
+    // a complete grid in the file format, for sending it without a file
+    // the file must fit into one byte array, up to depth 10 of the carpet
+    public static byte[] toBytes(BitGrid grid, int depth, int rule) {
+        Header header = new Header(depth, rule, grid.rows(), checksum(grid.words(), 0, grid.words().length, 0));
+        if (header.fileSize() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Grid of " + grid.rows() + " x " + grid.rows() + " cells is too large for one array ("
+                    + header.fileSize() + " bytes), write it to a file instead.");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[(int) header.fileSize()]).order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, header);
+        buffer.asLongBuffer().put(grid.words());
+        return buffer.array();
+    }
+
+    // binary file that is filled band by band, the header with the checksum is written on close
+    // bands are written with positional writes through one buffer, a mapping per band would leave many
+    // mappings open until the GC unmaps them and can run into the limit of mappings per process
+    public static final class Writer implements RowSink {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        private final int depth, rule, gridSize;
+        private long checksum;             // xor of the checksums of all bands written so far
+
+        public Writer(Path path, int depth, int rule, int gridSize) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.depth = depth;
+            this.rule = rule;
+            this.gridSize = gridSize;
+        }
+
+        @Override
+        public void writeRows(BitGrid band, int firstRow, int rowCount) throws IOException {
+            int wordsPerRow = band.wordsPerRow();
+            writeRowsAt(channel, buffer, wordsPerRow, firstRow, band.words(), 0, rowCount);
+            checksum ^= checksum(band.words(), 0, rowCount * wordsPerRow, (long) firstRow * wordsPerRow);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                writeHeader(channel, new Header(depth, rule, gridSize, checksum));
+            }
+        }
+    }
+
+    // text file that is filled band by band, same format as writeText
+    public static final class TextWriter implements RowSink {
+        private final BufferedWriter writer;
+        private final char[] line;         // one row of text, written with a single call
+
+        public TextWriter(Path path, int gridSize) throws IOException {
+            this.writer = Files.newBufferedWriter(path);
+            this.line = new char[gridSize * 2];
+        }
+
+        @Override
+        public void writeRows(BitGrid band, int firstRow, int rowCount) throws IOException {
+            for (int i = 0; i < rowCount; i++) {
+                for (int j = 0; j < band.cols(); j++) {
+                    line[2 * j] = band.get(i, j) ? '1' : '0';
+                    line[2 * j + 1] = ' ';
+                }
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    // write the header at the start of the file
+    public static void writeHeader(FileChannel channel, Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        putHeader(buffer, header);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());   // positional write, does not move the channel
+        }
+    }
+
+    private static void putHeader(ByteBuffer buffer, Header header) {
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(header.depth).putInt(header.rule)
+                .putInt(header.gridSize).putInt(header.wordsPerRow).putLong(header.checksum);
+    }
+
+    // write rowCount packed rows starting at firstRow, words are taken from the array starting at offset
+    public static void writeRows(FileChannel channel, int wordsPerRow, int firstRow, long[] words, int offset, int rowCount) throws IOException {
+        long position = HEADER_SIZE + (long) firstRow * wordsPerRow * Long.BYTES;   // byte offset of the first row
+        long remaining = (long) rowCount * wordsPerRow;                              // words left to write
+        while (remaining > 0) {
+            int count = (int) Math.min(remaining, MAP_CHUNK / Long.BYTES);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) count * Long.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(words, offset, count);  // bulk copy into the mapping
+            position += (long) count * Long.BYTES;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    // create an empty file of the final size for a grid, the rows can then be written in any order
+    // and the header is written last, once the checksum is known
+    public static void allocate(Path path, int gridSize) throws IOException {
+        long fileSize = new Header(0, 0, gridSize, 0).fileSize();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.allocate(1), fileSize - 1);   // writing the last byte sets the file size
+        }
+    }
+
+    // same as writeRows, but with positional writes instead of a mapping
+    // safe when several processes write into the same file, also on shared file systems
+    public static void writeRowsAt(FileChannel channel, int wordsPerRow, int firstRow, long[] words, int offset, int rowCount) throws IOException {
+        writeRowsAt(channel, ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN), wordsPerRow, firstRow, words, offset, rowCount);
+    }
+
+    // same with a buffer of the caller, the buffer holds WRITE_BUFFER bytes in little endian order
+    private static void writeRowsAt(FileChannel channel, ByteBuffer buffer, int wordsPerRow, int firstRow, long[] words, int offset,
+                                    int rowCount) throws IOException {
+        long position = HEADER_SIZE + (long) firstRow * wordsPerRow * Long.BYTES;
+        long remaining = (long) rowCount * wordsPerRow;
+        while (remaining > 0) {
+            int count = (int) Math.min(remaining, WRITE_BUFFER / Long.BYTES);
+            buffer.clear();
+            buffer.asLongBuffer().put(words, offset, count);     // the view does not move the position of the buffer
+            buffer.limit(count * Long.BYTES);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    // read the header and check that it belongs to a valid result file
+    public static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("Result file is too short.");
+            }
+        }
+        buffer.flip();
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not a result file.");
+        }
+        int depth = buffer.getInt();
+        int rule = buffer.getInt();
+        int gridSize = buffer.getInt();
+        int wordsPerRow = buffer.getInt();
+        Header header = new Header(depth, rule, gridSize, buffer.getLong());
+        if (gridSize < 0 || wordsPerRow != header.wordsPerRow || channel.size() != header.fileSize()) {
+            throw new IOException("Result file is damaged, size does not match the header.");
+        }
+        if (depth < 0 || gridSize != sizeOf(rule, depth)) {
+            throw new IOException("Result file is damaged, grid size " + gridSize + " does not match depth " + depth + " of the rule.");
+        }
+        return header;
+    }
+
+    // cells per side of a rule code and depth, -1 if the code is not a valid rule or the depth is too large
+    private static long sizeOf(int rule, int depth) {
+        try {
+            return Rule.fromCode(rule).size(depth);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    // read the header of a file
+    public static Header readHeader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel);
+        }
+    }
+
+    // read a complete grid and verify the checksum
+    public static BitGrid read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            BitGrid grid = new BitGrid(header.gridSize);
+            readRows(channel, header.wordsPerRow, 0, grid.words(), 0, grid.rows());
+            if (checksum(grid.words(), 0, grid.words().length, 0) != header.checksum) {
+                throw new IOException("Checksum mismatch in " + path + ".");
+            }
+            return grid;
+        }
+    }
+
+    // read rowCount packed rows starting at firstRow into the array starting at offset
+    public static void readRows(FileChannel channel, int wordsPerRow, int firstRow, long[] words, int offset, int rowCount) throws IOException {
+        long position = HEADER_SIZE + (long) firstRow * wordsPerRow * Long.BYTES;
+        long remaining = (long) rowCount * wordsPerRow;
+        while (remaining > 0) {
+            int count = (int) Math.min(remaining, MAP_CHUNK / Long.BYTES);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Long.BYTES);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(words, offset, count);  // bulk copy out of the mapping
+            position += (long) count * Long.BYTES;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    // checksum of count words, firstIndex is the position of the first word in the whole grid
+    // every word is hashed with its position and combined with xor, so row bands can be summed up in any order
+    public static long checksum(long[] words, int from, int count, long firstIndex) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum ^= mix(words[from + i] + (firstIndex + i) * 0x9E3779B97F4A7C15L);
+        }
+        return sum;
+    }
+
+    // 64 bit finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // export a grid as text, "1 " or "0 " per cell and one line per row
+    public static void writeText(Path path, BitGrid grid) throws IOException {
+        try (TextWriter writer = new TextWriter(path, grid.cols())) {
+            writer.writeRows(grid, 0, grid.rows());
+        }
+    }
+
+    // read a grid from the text format
+    public static BitGrid readText(Path path) throws IOException {
+        int gridSize;
+        try (BufferedReader br = Files.newBufferedReader(path)) {
+            String line = br.readLine();                                   // grid size from the first line
+            gridSize = line == null ? 0 : line.trim().split(" ").length;
+        }
+        BitGrid grid = new BitGrid(gridSize);
+        try (BufferedReader br = Files.newBufferedReader(path)) {
+            String line;
+            int i = 0;
+            while ((line = br.readLine()) != null && i < gridSize) {
+                for (int j = 0; j < gridSize && 2 * j < line.length(); j++) {
+                    if (line.charAt(2 * j) == '1') {
+                        grid.set(i, j);
+                    }
+                }
+                i++;
+            }
+        }
+        return grid;
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.Arrays;
+
+// computes whole rows of a fractal, 64 cells per step
+// cell (row, col) is filled if on every level the block of its base k digits is kept by the rule, so a row is the AND of
+// one precomputed mask per level, picked by the digit of the row on that level (the mask keeps the columns whose digit
+// is kept in that block row), levels where the block row keeps every column need no mask
+public class RowKernel {
+    public static final long MAX_SIZE = 14_348_907;   // 3^15 cells per side, the largest grid the viewer and the server compute rows for
+    protected final Rule rule;
+    protected final int depth, size, wordsPerRow;
+    protected final long[] full;            // all cells of a row set, used for rows that need no mask
+    protected final long[][][] masks;       // masks[k][d]: columns kept on level k for row digit d, null if all are kept
+    private final boolean[] emptyRow;       // emptyRow[d]: block row d of the rule keeps nothing
+    // masks of the row that is being computed, one array per thread, so computing a row allocates nothing
+    private final ThreadLocal<long[][]> rowMasks;
+
+    // carpet kernel, precompute the masks for a grid of 3^depth cells
+    public RowKernel(int depth) {
+        this(Rule.CARPET, depth);
+    }
+
+    // constructor, precompute the masks for a grid of k^depth cells
+    public RowKernel(Rule rule, int depth) {
+        this.rule = rule;
+        this.depth = depth;
+        this.size = rule.size(depth);
+        this.wordsPerRow = BitGrid.wordsFor(size);
+        this.full = new long[wordsPerRow];
+        this.masks = new long[depth][rule.base()][];
+        this.emptyRow = new boolean[rule.base()];
+        this.rowMasks = ThreadLocal.withInitial(() -> new long[depth][]);
+        fill(full, 0, size);
+
+        int base = rule.base();
+        for (int d = 0; d < base; d++) {
+            int kept = 0;
+            for (int c = 0; c < base; c++) {
+                kept += rule.kept(c, d) ? 1 : 0;
+            }
+            emptyRow[d] = kept == 0;
+        }
+
+        long run = 1;                                     // columns with the same digit k next to each other, base^k
+        for (int k = 0; k < depth; k++, run *= base) {
+            for (int d = 0; d < base; d++) {
+                if (emptyRow[d] || keepsAll(d)) {
+                    continue;
+                }
+                int same = sameRow(d);
+                if (same < d) {                           // block rows with the same pattern share one mask
+                    masks[k][d] = masks[k][same];
+                    continue;
+                }
+                long[] mask = new long[wordsPerRow];
+                for (long start = 0; start < size; start += run) {   // one run of columns at a time
+                    if (rule.kept((int) (start / run % base), d)) {
+                        fill(mask, start, run);
+                    }
+                }
+                masks[k][d] = mask;
+            }
+        }
+    }
+
+    // SIMD kernel if the jdk.incubator.vector module is available (run with --add-modules jdk.incubator.vector),
+    // the scalar kernel otherwise or if -Dfractal.scalar=true is set
+    public static RowKernel create(int depth) {
+        return create(Rule.CARPET, depth);
+    }
+
+    public static RowKernel create(Rule rule, int depth) {
+        if (!Boolean.getBoolean("fractal.scalar") && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return new VectorRowKernel(rule, depth);
+            } catch (LinkageError e) {                  // vector classes could not be loaded
+                System.err.println("Vector API not available, using scalar row kernel.");
+            }
+        }
+        return new RowKernel(rule, depth);
+    }
+
+    public Rule rule() {
+        return rule;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int wordsPerRow() {
+        return wordsPerRow;
+    }
+
+    // memory of the precomputed masks, a mask shared by several block rows is counted once
+    public long sizeInBytes() {
+        long words = full.length;
+        for (long[][] level : masks) {
+            for (int d = 0; d < level.length; d++) {
+                if (level[d] != null && sameRow(d) == d) {
+                    words += level[d].length;
+                }
+            }
+        }
+        return words * Long.BYTES;
+    }
+
+    // compute a whole row into out, starting at offset
+    public void computeRow(int row, long[] out, int offset) {
+        computeWords(row, out, offset, 0, wordsPerRow);
+    }
+
+    // compute the words fromWord..toWord-1 of a row into out, word w goes to out[offset + w]
+    public void computeWords(int row, long[] out, int offset, int fromWord, int toWord) {
+        long[][] rowMasks = this.rowMasks.get();         // masks of the levels of this row, first count are used
+        int count = 0;
+        int base = rule.base();
+        int digits = row;
+        for (int k = 0; k < depth; k++) {
+            int d = digits % base;
+            if (emptyRow[d]) {                           // block row without kept blocks, the whole row is empty
+                Arrays.fill(out, offset + fromWord, offset + toWord, 0L);
+                return;
+            }
+            if (masks[k][d] != null) {
+                rowMasks[count++] = masks[k][d];
+            }
+            digits /= base;
+        }
+
+        if (count == 0) {                                // no dropped block in this row
+            System.arraycopy(full, fromWord, out, offset + fromWord, toWord - fromWord);
+        } else {
+            combine(rowMasks, count, out, offset, fromWord, toWord);
+        }
+    }
+
+    // AND the first count masks into out
+    protected void combine(long[][] rowMasks, int count, long[] out, int offset, int fromWord, int toWord) {
+        System.arraycopy(rowMasks[0], fromWord, out, offset + fromWord, toWord - fromWord);
+        for (int m = 1; m < count; m++) {
+            long[] mask = rowMasks[m];
+            for (int w = fromWord; w < toWord; w++) {
+                out[offset + w] &= mask[w];
+            }
+        }
+    }
+
+    // does block row d keep every column
+    private boolean keepsAll(int d) {
+        for (int c = 0; c < rule.base(); c++) {
+            if (!rule.kept(c, d)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // first block row with the same pattern as block row d
+    private int sameRow(int d) {
+        for (int other = 0; other < d; other++) {
+            boolean same = true;
+            for (int c = 0; c < rule.base(); c++) {
+                same &= rule.kept(c, other) == rule.kept(c, d);
+            }
+            if (same) {
+                return other;
+            }
+        }
+        return d;
+    }
+
+    // set length bits from bit from on
+    private static void fill(long[] words, long from, long length) {
+        long to = from + length;
+        while (from < to) {
+            int word = (int) (from >>> 6);
+            int shift = (int) (from & 63);
+            int count = (int) Math.min(to - from, 64 - shift);
+            words[word] |= (count == 64 ? -1L : (1L << count) - 1) << shift;
+            from += count;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// destination for rows that are produced band by band, in order from the top
+public interface RowSink extends Closeable {
+
+    // write the first rowCount rows of the band, they are rows firstRow.. of the whole grid
+    void writeRows(BitGrid band, int firstRow, int rowCount) throws IOException;
+
+    // sink that hands every band to both sinks, e.g. the result file and the text export, and closes both
+    static RowSink both(RowSink first, RowSink second) {
+        return new RowSink() {
+            @Override
+            public void writeRows(BitGrid band, int firstRow, int rowCount) throws IOException {
+                first.writeRows(band, firstRow, rowCount);
+                second.writeRows(band, firstRow, rowCount);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    first.close();
+                } finally {
+                    second.close();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,187 @@
+// substitution rule of a fractal: the grid of depth d is k x k blocks, each block is either empty
+// or the grid of depth d - 1, the keep mask has bit k * row + column set for every block that is kept
+// a cell is filled if the blocks of its base k digits are kept on every level
+//
+// rules are given by name (--rule=carpet|vicsek|cantor|saltire) or as rows of 0 and 1,
+// top row first, separated by '/' (--rule=111/101/111 is the carpet, 2 <= k <= 5)
+public final class Rule {
+    public static final Rule CARPET = new Rule("carpet", 3, 0b111_101_111);    // Sierpinski carpet, center dropped
+    public static final Rule VICSEK = new Rule("vicsek", 3, 0b010_111_010);    // Vicsek fractal, cross of five blocks
+    public static final Rule CANTOR = new Rule("cantor", 3, 0b101_000_101);    // Cantor dust, four corners
+    public static final Rule SALTIRE = new Rule("saltire", 3, 0b101_010_101);  // Vicsek fractal, diagonal cross
+
+    private static final Rule[] NAMED = {CARPET, VICSEK, CANTOR, SALTIRE};
+    private static final int MAX_BASE = 5;            // k * k mask bits must fit below the base bits of the code
+    private static final int BASE_SHIFT = 25;         // code: mask | k << BASE_SHIFT, k = 3 is stored as the plain mask
+    private static final int MAX_TABLE = 1 << 12;     // entries of the lookup table for contains
+
+    private final String name;
+    private final int base, mask;
+    private final int tableLevels, tableSide;         // contains checks tableLevels digits at once, tableSide = k^tableLevels
+    private final boolean[] table;                    // table[x * tableSide + y]: all digit pairs of x and y kept
+
+    private Rule(String name, int base, int mask) {
+        this.name = name;
+        this.base = base;
+        this.mask = mask;
+
+        int levels = 1;
+        while (Math.pow(base, 2 * (levels + 1)) <= MAX_TABLE) {
+            levels++;
+        }
+        this.tableLevels = levels;
+        this.tableSide = (int) Math.pow(base, levels);
+        this.table = new boolean[tableSide * tableSide];
+        for (int x = 0; x < tableSide; x++) {
+            for (int y = 0; y < tableSide; y++) {
+                boolean keep = true;
+                for (int k = 0, dx = x, dy = y; k < levels; k++, dx /= base, dy /= base) {
+                    keep &= kept(dx % base, dy % base);
+                }
+                table[x * tableSide + y] = keep;
+            }
+        }
+    }
+
+    // rule from --rule, the carpet if the option is missing or invalid
+    public static Rule fromArgs(String[] args) {
+        String value = Args.value(args, "rule", CARPET.name);
+        try {
+            return parse(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " Using the carpet rule.");
+            return CARPET;
+        }
+    }
+
+    // rule from a name or a pattern like 111/101/111
+    public static Rule parse(String text) {
+        for (Rule rule : NAMED) {
+            if (rule.name.equalsIgnoreCase(text)) {
+                return rule;
+            }
+        }
+        String[] rows = text.split("/");
+        int base = rows.length;
+        if (base < 2 || base > MAX_BASE) {
+            throw new IllegalArgumentException("Invalid rule " + text + ", expected a name or 2 to " + MAX_BASE + " rows of 0 and 1.");
+        }
+        int mask = 0;
+        for (int row = 0; row < base; row++) {
+            if (!rows[row].matches("[01]{" + base + "}")) {
+                throw new IllegalArgumentException("Invalid rule " + text + ", every row needs " + base + " digits 0 or 1.");
+            }
+            for (int col = 0; col < base; col++) {
+                if (rows[row].charAt(col) == '1') {
+                    mask |= 1 << (base * row + col);
+                }
+            }
+        }
+        return of(base, mask);
+    }
+
+    // rule from the code stored in result file headers
+    public static Rule fromCode(int code) {
+        int base = code >>> BASE_SHIFT == 0 ? 3 : code >>> BASE_SHIFT;
+        return of(base, code & ((1 << BASE_SHIFT) - 1));
+    }
+
+    private static Rule of(int base, int mask) {
+        if (base < 2 || base > MAX_BASE || mask == 0 || mask >>> (base * base) != 0) {
+            throw new IllegalArgumentException("Invalid rule: base " + base + ", mask " + Integer.toBinaryString(mask) + ".");
+        }
+        for (Rule rule : NAMED) {
+            if (rule.base == base && rule.mask == mask) {
+                return rule;
+            }
+        }
+        StringBuilder name = new StringBuilder();
+        for (int row = 0; row < base; row++) {
+            name.append(row == 0 ? "" : "/");
+            for (int col = 0; col < base; col++) {
+                name.append((mask >>> (base * row + col) & 1) != 0 ? '1' : '0');
+            }
+        }
+        return new Rule(name.toString(), base, mask);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    // blocks per side, k
+    public int base() {
+        return base;
+    }
+
+    public int mask() {
+        return mask;
+    }
+
+    // value for the rule field of the file headers
+    public int code() {
+        return base == 3 ? mask : mask | base << BASE_SHIFT;
+    }
+
+    // is the block in this column and row kept
+    public boolean kept(int column, int row) {
+        return (mask >>> (base * row + column) & 1) != 0;
+    }
+
+    // number of kept blocks
+    public int keptBlocks() {
+        return Integer.bitCount(mask);
+    }
+
+    // share of the cells of a block that are kept
+    public double density() {
+        return keptBlocks() / (double) (base * base);
+    }
+
+    // cells per side for a depth, k^depth
+    public int size(int depth) {
+        long size = 1;
+        for (int i = 0; i < depth; i++) {
+            size *= base;
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Depth " + depth + " is too large for rule " + name + ".");
+            }
+        }
+        return (int) size;
+    }
+
+    // deepest depth whose grid has at most maxSize cells per side
+    public int maxDepth(long maxSize) {
+        int depth = 0;
+        for (long size = base; size <= maxSize; size *= base) {
+            depth++;
+        }
+        return depth;
+    }
+
+    // check if a cell (x, y) is filled in the grid of a depth, one cell at a time
+    // several digits are looked up in one step, so there are depth / tableLevels divisions instead of depth
+    public boolean contains(int x, int y, int depth) {
+        int level = 0;
+        for (; level + tableLevels <= depth; level += tableLevels) {
+            if (!table[(x % tableSide) * tableSide + y % tableSide]) {
+                return false;
+            }
+            x /= tableSide;
+            y /= tableSide;
+        }
+        for (; level < depth; level++) {                 // digits left over
+            if (!kept(x % base, y % base)) {
+                return false;
+            }
+            x /= base;
+            y /= base;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
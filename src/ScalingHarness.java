@@ -0,0 +1,188 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// runs Main with MPJ Express for 1..N processes and writes strong or weak scaling tables as CSV
+// every run uses --timings, Main then prints compute, communication and I/O time of every process
+//
+// options: --ranks=N (most processes, weak scaling needs at least 9), --depths=7,8 (strong) or first depth (weak), --mode=strong|weak,
+//          --repeat=N (best run is kept), --out=scaling.csv, --device=multicore, --mpjrun=path, --classpath=path
+//          --threads=N and --parallel-io are passed on to Main
+public class ScalingHarness {
+    private static final String DEFAULT_DEPTHS = "7,8";
+    private static final int DEFAULT_REPEAT = 3;
+
+    // timings of one run of Main
+    private static final class Run {
+        final int depth, ranks;
+        final List<double[]> processes = new ArrayList<>();  // compute, communication, io per process
+        double wallTime;                                     // whole mpjrun call, with JVM startup
+
+        Run(int depth, int ranks) {
+            this.depth = depth;
+            this.ranks = ranks;
+        }
+
+        // slowest process for one phase
+        double max(int phase) {
+            double max = 0;
+            for (double[] times : processes) {
+                max = Math.max(max, times[phase]);
+            }
+            return max;
+        }
+
+        // time of the slowest process over all phases
+        double total() {
+            double max = 0;
+            for (double[] times : processes) {
+                max = Math.max(max, times[0] + times[1] + times[2]);
+            }
+            return max;
+        }
+    }
+
+    public static void main(String[] args) {
+        String mpjHome = System.getenv("MPJ_HOME");
+        String mpjrun = Args.value(args, "mpjrun", mpjHome == null ? "mpjrun.sh" : Paths.get(mpjHome, "bin", "mpjrun.sh").toString());
+        String classpath = Args.value(args, "classpath", System.getProperty("java.class.path"));
+        String device = Args.value(args, "device", "multicore");
+        int maxRanks = Math.max(1, Args.intValue(args, "ranks", Runtime.getRuntime().availableProcessors()));
+        int repeat = Math.max(1, Args.intValue(args, "repeat", DEFAULT_REPEAT));
+        boolean weak = Args.value(args, "mode", "strong").equals("weak");
+        Path out = Paths.get(Args.value(args, "out", "scaling.csv"));
+        if (weak && maxRanks < 9) {
+            // 1, 9, 81.. processes, with fewer than 9 the table would only have the run with one process
+            System.err.println("Weak scaling needs --ranks=9 or more (1, 9, 81.. processes), got " + maxRanks + ".");
+            return;
+        }
+
+        // options for Main
+        List<String> mainOptions = new ArrayList<>();
+        mainOptions.add("--timings");
+        if (Args.hasFlag(args, "threads")) {
+            mainOptions.add("--threads=" + Args.intValue(args, "threads", 1));
+        }
+        if (Args.hasFlag(args, "parallel-io")) {
+            mainOptions.add("--parallel-io");
+        }
+
+        List<Run> runs = new ArrayList<>();
+        try {
+            if (weak) {
+                // weak scaling: the grid grows 9 times per depth, so the work per process stays the same for 1, 9, 81.. processes
+                int depth = Integer.parseInt(Args.value(args, "depths", DEFAULT_DEPTHS).split(",")[0]);
+                for (int ranks = 1; ranks <= maxRanks; ranks *= 9, depth++) {
+                    runs.add(best(mpjrun, classpath, device, mainOptions, depth, ranks, repeat));
+                }
+            } else {
+                // strong scaling: same depth for 1, 2, 4.. processes
+                for (String value : Args.value(args, "depths", DEFAULT_DEPTHS).split(",")) {
+                    int depth = Integer.parseInt(value.trim());
+                    for (int ranks : rankCounts(maxRanks)) {
+                        runs.add(best(mpjrun, classpath, device, mainOptions, depth, ranks, repeat));
+                    }
+                }
+            }
+            writeCsv(out, runs, weak);
+            writeRanksCsv(Paths.get(out.toString().replaceFirst("(\\.csv)?$", "-ranks.csv")), runs);
+        } catch (IOException | InterruptedException e) {  // handle exception
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid depth in --depths.");
+        }
+    }
+
+    // 1, 2, 4.. and the largest number of processes
+    private static List<Integer> rankCounts(int maxRanks) {
+        List<Integer> counts = new ArrayList<>();
+        for (int ranks = 1; ranks < maxRanks; ranks *= 2) {
+            counts.add(ranks);
+        }
+        counts.add(maxRanks);
+        return counts;
+    }
+
+    // run Main several times and keep the fastest run
+    private static Run best(String mpjrun, String classpath, String device, List<String> mainOptions,
+                            int depth, int ranks, int repeat) throws IOException, InterruptedException {
+        Run best = null;
+        for (int i = 0; i < repeat; i++) {
+            Run run = launch(mpjrun, classpath, device, mainOptions, depth, ranks);
+            if (best == null || run.total() < best.total()) {
+                best = run;
+            }
+        }
+        System.out.printf(Locale.ROOT, "depth %d, %d processes: compute %.3f ms, communication %.3f ms, I/O %.3f ms%n",
+                depth, ranks, best.max(0), best.max(1), best.max(2));
+        return best;
+    }
+
+    // one mpjrun call, reads the timing lines of Main from its output
+    private static Run launch(String mpjrun, String classpath, String device, List<String> mainOptions,
+                              int depth, int ranks) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(mpjrun, "-np", String.valueOf(ranks), "-dev", device, "-cp", classpath, "Main"));
+        command.addAll(mainOptions);
+        command.add(String.valueOf(depth));   // Main reads the depth from the last argument
+
+        Run run = new Run(depth, ranks);
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("timing,")) {     // timing,<rank>,<compute>,<communication>,<io>
+                    String[] fields = line.split(",");
+                    run.processes.add(new double[]{Double.parseDouble(fields[2]), Double.parseDouble(fields[3]), Double.parseDouble(fields[4])});
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        run.wallTime = (System.nanoTime() - start) / 1_000_000.0;
+        if (exitCode != 0 || run.processes.size() != ranks) {
+            throw new IOException("mpjrun failed for depth " + depth + " with " + ranks + " processes (exit code " + exitCode + ").");
+        }
+        return run;
+    }
+
+    // one line per run with speedup and efficiency against the run with one process
+    // strong: speedup = T1 / TN, efficiency = speedup / N; weak: efficiency = T1 / TN, speedup = N * efficiency
+    private static void writeCsv(Path path, List<Run> runs, boolean weak) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println("mode,depth,ranks,compute_ms,communication_ms,io_ms,total_ms,wall_ms,speedup,efficiency");
+            Run baseline = null;
+            for (Run run : runs) {
+                if (run.ranks == 1 || baseline == null) {
+                    baseline = run;              // runs of a depth start with one process
+                }
+                double ratio = baseline.total() / run.total();
+                double speedup = weak ? run.ranks * ratio : ratio;
+                double efficiency = weak ? ratio : ratio / run.ranks;
+                writer.printf(Locale.ROOT, "%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f%n", weak ? "weak" : "strong",
+                        run.depth, run.ranks, run.max(0), run.max(1), run.max(2), run.total(), run.wallTime, speedup, efficiency);
+            }
+        }
+        System.out.println("Scaling table written to " + path);
+    }
+
+    // one line per process of every run
+    private static void writeRanksCsv(Path path, List<Run> runs) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path))) {
+            writer.println("depth,ranks,rank,compute_ms,communication_ms,io_ms");
+            for (Run run : runs) {
+                for (int p = 0; p < run.processes.size(); p++) {
+                    double[] times = run.processes.get(p);
+                    writer.printf(Locale.ROOT, "%d,%d,%d,%.3f,%.3f,%.3f%n", run.depth, run.ranks, p, times[0], times[1], times[2]);
+                }
+            }
+        }
+        System.out.println("Per process timings written to " + path);
+    }
+}
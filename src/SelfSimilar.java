@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+// builds the fractal by copying instead of testing every cell
+// the carpet of size 3s is 8 copies of the carpet of size s around an empty center (any rule: one copy per kept block),
+// so we start with a single black cell and copy the finished tile outward one level at a time
+public class SelfSimilar {
+    private static final int DEFAULT_RECURSION_DEPTH = 4;  // default depth
+
+    public static void main(String[] args) {
+        // set default recursion depth
+        int recursionDepth = DEFAULT_RECURSION_DEPTH;
+
+        String[] values = Args.positional(args);   // arguments without the --options
+
+        // command line argument handling for the recursion depth
+        if (values.length > 0) {
+            try {
+                recursionDepth = Integer.parseInt(values[0]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid recursion depth. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
+            }
+        } else {
+            System.out.println("No recursion depth argument provided. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
+        }
+
+        Rule rule = Rule.fromArgs(args);            // --rule, the carpet by default
+        System.out.println("Starting self-similar computation with depth: " + recursionDepth + ", rule: " + rule);
+
+        // track computation time for the fractal
+        long startTime = System.nanoTime();
+
+        // start from the deepest checkpoint with --checkpoints, otherwise from a single cell
+        CheckpointCache checkpoints = CheckpointCache.fromArgs(args, rule);
+        BitGrid data = new BitGrid(rule.size(recursionDepth));
+        int checkpoint = checkpoints == null ? -1 : checkpoints.fill(data, 0, recursionDepth);
+        if (checkpoint < 0) {
+            build(data, rule);
+        }
+
+        long endTime = System.nanoTime();
+
+        // calculate time in ms with three decimal places
+        double elapsedTime = (endTime - startTime) / 1_000_000.0;
+        System.out.printf("Self-similar computation completed in %.3f milliseconds.%n", elapsedTime);
+        if (checkpoint >= 0) {
+            System.out.println("Extended from the checkpoint of depth " + checkpoint + ".");
+        }
+
+        // write result to file (result.cbin with --compress), and keep it as checkpoint for the next depth
+        boolean compress = Args.hasFlag(args, "compress");
+        writeToFile(data, recursionDepth, rule, Args.hasFlag(args, "text"), compress ? CompressedFile.chunkRowsFor(args, data.rows()) : 0);
+        if (checkpoints != null && !compress) {
+            checkpoints.store(recursionDepth, Paths.get(ResultFile.FILE_NAME));
+        }
+    }
+
+    // compute the whole carpet for a depth
+    public static BitGrid compute(int depth) {
+        return compute(Rule.CARPET, depth);
+    }
+
+    // compute the whole fractal of a rule for a depth
+    public static BitGrid compute(Rule rule, int depth) {
+        BitGrid grid = new BitGrid(rule.size(depth));
+        build(grid, rule);
+        return grid;
+    }
+
+    // build the fractal in an empty grid of k^depth x k^depth cells
+    public static void build(BitGrid grid, Rule rule) {
+        grid.set(0, 0);                                    // depth 0, a single black cell
+        for (int tileSize = 1; tileSize < grid.rows(); tileSize *= rule.base()) {
+            expand(grid, tileSize, rule);                  // one level up
+        }
+    }
+
+    // the top left tileSize x tileSize block holds a finished fractal, everything right of it and below it is still empty
+    // fills the top left k * tileSize block with a copy of the tile in every kept block
+    public static void expand(BitGrid grid, int tileSize, Rule rule) {
+        int base = rule.base();
+        int wordsToCopy = BitGrid.wordsFor(base * tileSize);  // words of a row that the new level uses
+        long[] words = grid.words();
+
+        // top block row: copy the tile right of itself into the kept blocks
+        for (int i = 0; i < tileSize; i++) {
+            for (int block = 1; block < base; block++) {
+                if (rule.kept(block, 0)) {
+                    grid.copyRange(i, 0, i, block * tileSize, tileSize);
+                }
+            }
+        }
+
+        for (int blockRow = 1; blockRow < base; blockRow++) {
+            int top = blockRow * tileSize;
+            if (rule.kept(0, 0) && sameBlocks(rule, blockRow, 0)) {
+                // same blocks as the top block row, whole words can be copied
+                for (int i = 0; i < tileSize; i++) {
+                    System.arraycopy(words, grid.rowOffset(i), words, grid.rowOffset(top + i), wordsToCopy);
+                }
+                continue;
+            }
+            for (int i = 0; i < tileSize; i++) {          // copy the tile into each kept block, dropped blocks stay empty
+                for (int block = 0; block < base; block++) {
+                    if (rule.kept(block, blockRow)) {
+                        grid.copyRange(i, 0, top + i, block * tileSize, tileSize);
+                    }
+                }
+            }
+        }
+
+        // the tile itself is dropped, it was only kept as source of the copies
+        if (!rule.kept(0, 0)) {
+            for (int i = 0; i < tileSize; i++) {
+                grid.clearRange(i, 0, tileSize);
+            }
+        }
+    }
+
+    // do two block rows of the rule keep the same blocks
+    private static boolean sameBlocks(Rule rule, int a, int b) {
+        for (int block = 0; block < rule.base(); block++) {
+            if (rule.kept(block, a) != rule.kept(block, b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // write result to the binary file, compressed in chunks of chunkRows rows if chunkRows > 0, and to the text file if requested with --text
+    private static void writeToFile(BitGrid data, int depth, Rule rule, boolean text, int chunkRows) {
+        try {
+            if (chunkRows > 0) {
+                CompressedFile.write(Paths.get(CompressedFile.FILE_NAME), data, depth, rule.code(), chunkRows, ForkJoinPool.commonPool());
+            } else {
+                ResultFile.write(Paths.get(ResultFile.FILE_NAME), data, depth, rule.code());
+            }
+            if (text) {
+                ResultFile.writeText(Paths.get(ResultFile.TEXT_FILE_NAME), data);
+            }
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,19 +1,29 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
 
 public class Sequential {
     private static final int DEFAULT_RECURSION_DEPTH = 4;  // default depth
-    private static final int MAX_RECURSION_DEPTH = 10;     // recursion limit
+    public static final int MAX_RECURSION_DEPTH = 10;      // recursion limit
 
     public static void main(String[] args) {
+        if (Args.hasFlag(args, "verify")) {                // check all engines against Rule.contains, nothing is written
+            if (!Verify.run(args)) {
+                System.exit(1);
+            }
+            return;
+        }
+        Metrics metrics = Metrics.start("sequential");     // phase timings, reported with --metrics
+
         // set default recursion depth
         int recursionDepth = DEFAULT_RECURSION_DEPTH;
 
+        String[] values = Args.positional(args);   // arguments without the --options
+
         // command line argument handling for the recursion depth
-        if (args.length > 0) {
+        if (values.length > 0) {
             try {
-                recursionDepth = Integer.parseInt(args[0]);
+                recursionDepth = Integer.parseInt(values[0]);
                 if (recursionDepth > MAX_RECURSION_DEPTH) {
                     System.err.println("Recursion depth is too large. Using maximum value of " + MAX_RECURSION_DEPTH + ".");
                     recursionDepth = MAX_RECURSION_DEPTH;
@@ -25,90 +35,76 @@ public class Sequential {
             System.out.println("No recursion depth argument provided. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
         }
 
-        long gridSize = (long) Math.pow(3, recursionDepth);  // calc grid based on rec
+        Rule rule = Rule.fromArgs(args);                     // --rule, the carpet by default
+        long gridSize = rule.size(recursionDepth);           // calc grid based on rec
 
-        int[] data = new int[(int) (gridSize * gridSize)];  // array to store fractal data
+        metrics.phase(Metrics.ALLOCATION);
+        BitGrid data = new BitGrid((int) gridSize);  // packed grid to store fractal data, one bit per cell
 
         Thread currentThread = Thread.currentThread();
         System.out.printf("Running on thread: %s (ID: %d)%n", currentThread.getName(), currentThread.threadId());
-        System.out.println("Starting sequential computation with depth: " + recursionDepth);
+        System.out.println("Starting sequential computation with depth: " + recursionDepth + ", rule: " + rule);
 
         // track computation time for the fractal
+        metrics.phase(Metrics.COMPUTE);
         long startTime = System.nanoTime();
 
-        // start from (0, 0), size of current grid, and depth of recursion
-        computeFractal(data, 0, 0, (int) gridSize, recursionDepth);
+        // build the grid from the deepest checkpoint with --checkpoints, otherwise compute every row with the row kernel
+        CheckpointCache checkpoints = CheckpointCache.fromArgs(args, rule);
+        int checkpoint = checkpoints == null ? -1 : checkpoints.fill(data, 0, recursionDepth);
+        if (checkpoint < 0) {
+            computeFractal(data, RowKernel.create(rule, recursionDepth));
+        }
 
         long endTime = System.nanoTime();
+        metrics.stop();
 
         // calculate time in ms with three decimal places
         double elapsedTime = (endTime - startTime) / 1_000_000.0;
         System.out.printf("Sequential computation completed in %.3f milliseconds.%n", elapsedTime);
-
-        // write result to file
-        writeToFile(data, (int) gridSize);
-    }
-
-    private static void computeFractal(int[] data, int x, int y, int size, int depth) {
-        // array to store the data of current process, leftmost, topmost coordinate, size of current section, fractal lvl
-
-        if (depth == 0) {   // base case
-            return;
+        if (checkpoint >= 0) {
+            System.out.println("Extended from the checkpoint of depth " + checkpoint + ".");
         }
 
-        int newSize = size / 3;  // next subgrid size
-
-        // ensure that the x and y indices are within the grid bounds
-        if (x < 0 || y < 0 || x + size > (int) Math.pow(3, depth) || y + size > (int) Math.pow(3, depth)) {
-            return;
-        }
-
-        for (int i = 0; i < size; i++) {                                             // go through current grid
-            for (int j = 0; j < size; j++) {
-                if (isInFractal(i, j, size)) {                                       // call helper method
-                    data[(y + i) * (int) Math.pow(3, depth) + (x + j)] = 1;          // set to 1 (black)
-                } else {
-                    data[(y + i) * (int) Math.pow(3, depth) + (x + j)] = 0;          // set to 0 (white)
-                }
-            }
+        // write result to file (result.cbin with --compress), and keep it as checkpoint for the next depth
+        boolean compress = Args.hasFlag(args, "compress");
+        writeToFile(data, recursionDepth, rule, Args.hasFlag(args, "text"), compress ? CompressedFile.chunkRowsFor(args, data.rows()) : 0, metrics);
+        if (checkpoints != null && !compress) {
+            checkpoints.store(recursionDepth, Paths.get(ResultFile.FILE_NAME));
         }
+        metrics.put("checkpoint", checkpoint);
 
-        if (newSize > 0) {                     // check new size
-            int newDepth = depth - 1;          // decrease depth
-            for (int i = 0; i < 3; i++) {      // iterate through sub-grids
-                for (int j = 0; j < 3; j++) {
-                    if (i == 1 && j == 1) {
-                        continue;  // center block is empty
-                    }
-                    computeFractal(data, x + i * newSize, y + j * newSize, newSize, newDepth);
-                } // recursive call to compute fractal for each sub-grid
-            }
-        }
+        metrics.put("depth", recursionDepth);
+        metrics.put("gridBytes", data.sizeInBytes());
+        metrics.report(args);
     }
 
-    private static boolean isInFractal(int x, int y, int size) {
-        while (size > 0) {
-            if ((x % 3 == 1) && (y % 3 == 1)) {
-                return false;  // center block of current sub-grid
-            }
-            x /= 3;   // go to the next sub-grid
-            y /= 3;
-            size /= 3;    // decrease size
+    // fill the grid row by row, the kernel produces 64 cells per step
+    // each level of the fractal only rewrote cells with the values of the top level, so one pass is enough
+    private static void computeFractal(BitGrid data, RowKernel kernel) {
+        for (int i = 0; i < data.rows(); i++) {
+            kernel.computeRow(i, data.words(), data.rowOffset(i));
         }
-        return true;   // cell is in the fractal, if not center block
     }
 
-    // write result to file
-    private static void writeToFile(int[] data, int gridSize) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter("result.txt"))) {
-            for (int i = 0; i < gridSize; i++) {                      // go through the result array
-                for (int j = 0; j < gridSize; j++) {
-                    writer.write(data[i * gridSize + j] + " ");
-                }
-                writer.newLine();
+    // write result to the binary file, compressed in chunks of chunkRows rows if chunkRows > 0, and to the text file if requested with --text
+    private static void writeToFile(BitGrid data, int depth, Rule rule, boolean text, int chunkRows, Metrics metrics) {
+        boolean compress = chunkRows > 0;
+        try {
+            metrics.phase(Metrics.SERIALIZATION);
+            long checksum = compress ? 0 : ResultFile.checksum(data.words(), 0, data.words().length, 0);   // chunks have their own
+            metrics.phase(Metrics.WRITE);
+            if (compress) {
+                CompressedFile.write(Paths.get(CompressedFile.FILE_NAME), data, depth, rule.code(), chunkRows, ForkJoinPool.commonPool());
+            } else {
+                ResultFile.write(Paths.get(ResultFile.FILE_NAME), data, depth, rule.code(), checksum);
+            }
+            if (text) {
+                ResultFile.writeText(Paths.get(ResultFile.TEXT_FILE_NAME), data);
             }
         } catch (IOException e) {  // handle exception
             e.printStackTrace();
         }
+        metrics.stop();
     }
 }
@@ -3,116 +3,210 @@ import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.Spinner;
 import javafx.scene.control.ToolBar;
-import javafx.scene.Cursor;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.StackPane;
-import javafx.scene.transform.Scale;
-import javafx.scene.transform.Translate;
+import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 
+// viewer for the carpet and the other fractals of Rule, only the visible part is drawn at the detail the zoom needs
+// the tiles are computed in this process, so changing the depth in the toolbar shows the new fractal right away
+// options: --depth=N and --rule=R (default: depth and rule of result.bin, or 4 and the carpet), --tile-cache=MB, --metrics[=file]
 public class SimpleGUI extends Application {
 
     public static final int WINDOW_WIDTH = 800;    // 800x600 window size
     public static final int WINDOW_HEIGHT = 600;
-    public static final int CANVAS_SIZE = 4000;  // virtual canvas size
-    public static final int DISPLAY_SIZE = 500;  // display size
+    private static final int DEFAULT_DEPTH = 4;
+    private static final int DEFAULT_TILE_CACHE = 128;  // MB for cached tiles
 
-    private final Scale scaleTransform = new Scale(1, 1, 0, 0); // zoom in/out
-    private final Translate translateTransform = new Translate(0, 0);  // move the canvas
     private ViewController viewController; // view controller class
+    private TileRenderer renderer;         // computes and draws the visible tiles
+    private Canvas canvas;                 // same size as the window below the toolbar
+    private Label viewStatus;              // zoom level of the view
+    private Image fileOverview;            // overview of the result file, shown for the depth of the file
+    private int fileOverviewCells;         // cells per pixel of the file overview
+    private int fileDepth;                 // depth of the result file
 
     @Override
     public void start(Stage primaryStage) {
 
-        Canvas canvas = new Canvas(DISPLAY_SIZE, DISPLAY_SIZE); // 500x500 canvas to draw the fractal
-        GraphicsContext gc = canvas.getGraphicsContext2D();     // get the graphics context
-
-        // apply transformations to the canvas, scale and translate
-        canvas.getTransforms().addAll(scaleTransform, translateTransform);
-
-        int gridSize = 0; // initialize grid size
-
-        // read from file to get the grid size
-        try (BufferedReader br = new BufferedReader(new FileReader("result.txt"))) {
-            String line = br.readLine();                         // read first line
-            if (line != null) {
-                gridSize = line.trim().split(" ").length;  // get grid size from the first line
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        String[] args = getParameters().getRaw().toArray(new String[0]);
+        Metrics metrics = Metrics.start("gui");      // load time, reported with --metrics
+
+        // depth and rule of the last computation if there is a result file, tiles are computed from the rule
+        Path resultPath = ImageLoader.resultPath();
+        ResultFile.Header header = resultPath == null ? null : readHeader(resultPath);
+        Rule rule = Args.hasFlag(args, "rule") || header == null ? Rule.fromArgs(args) : ruleOf(header);
+        int depth = Args.intValue(args, "depth", header != null ? header.depth : DEFAULT_DEPTH);
+        int maxDepth = rule.maxDepth(RowKernel.MAX_SIZE);
+        if (depth < 0 || depth > maxDepth) {
+            System.err.println("Depth must be between 0 and " + maxDepth + ". Using default value of " + DEFAULT_DEPTH + ".");
+            depth = Math.min(DEFAULT_DEPTH, maxDepth);
         }
+        long cacheBytes = Math.max(1, Args.intValue(args, "tile-cache", DEFAULT_TILE_CACHE)) * (1L << 20);
+        renderer = new TileRenderer(rule, depth, cacheBytes, this::draw);
 
-
-        double scale = (double) CANVAS_SIZE / gridSize;  // scale virtual canvas to fit the grid size
-
-        // compute offsets to center the fractal within the display area
-        double offsetX = (CANVAS_SIZE - gridSize * scale) / 2.0;  // Centering offset for X
-        double offsetY = (CANVAS_SIZE - gridSize * scale) / 2.0;  // Centering offset for Y
-
-        // scale canvas down to fit the display window
-        double displayScale = (double) DISPLAY_SIZE / CANVAS_SIZE;
-
-        // render the fractal on the larger virtual canvas size
-        gc.setImageSmoothing(true);  // enables anti-aliasing
-        gc.save();  // save the current state of the GraphicsContext
-        gc.scale(displayScale, displayScale);  // scale down to fit the display size
-
-        // read the file
-        try (BufferedReader br = new BufferedReader(new FileReader("result.txt"))) {
-            String line;
-            int y = 0;       // current row
-            while ((line = br.readLine()) != null) {
-                String[] values = line.trim().split(" ");        // split data in array of strings
-                for (int x = 0; x < values.length; x++) {
-                    if (values[x].equals("1")) {     // if value is 1, draw a black square
-                        gc.fillRect(offsetX + x * scale, offsetY + y * scale, scale, scale);
-                        // upper-left corner (x,y), width, height
-                    }
-                }
-                y++;    // go to next row
-            }
-        } catch (IOException e) {    // exception handling
-            e.printStackTrace();
-        }
-        gc.restore();  // restore the GraphicsContext to remove scaling after drawing
+        canvas = new Canvas();
+        viewController = new ViewController(renderer.gridSize(), this::draw);
 
         // toolbar with zoom and reset buttons
         ToolBar toolBar = new ToolBar();
         Button zoomInButton = new Button("Zoom In");
         Button zoomOutButton = new Button("Zoom Out");
         Button resetButton = new Button("Reset View");
-
-        // initialize ViewController with the scale and translate transformations
-        viewController = new ViewController(scaleTransform, translateTransform);
+        Spinner<Integer> depthSpinner = new Spinner<>(0, maxDepth, depth);
+        depthSpinner.setPrefWidth(70);
+        ProgressBar progressBar = new ProgressBar();
+        Label status = new Label();
+        viewStatus = new Label();
 
         // set actions for buttons
         zoomInButton.setOnAction(e -> viewController.zoom(1.2)); // zoom in by factor 1.2
         zoomOutButton.setOnAction(e -> viewController.zoom(0.8)); // zoom out by factor 0.8
-        resetButton.setOnAction(e -> viewController.resetView(WINDOW_WIDTH, WINDOW_HEIGHT)); // reset view
+        resetButton.setOnAction(e -> viewController.resetView(canvas.getWidth(), canvas.getHeight())); // reset view
+        depthSpinner.valueProperty().addListener((o, oldDepth, newDepth) -> changeDepth(newDepth));
+
+        toolBar.getItems().addAll(zoomInButton, zoomOutButton, resetButton, new Label("Depth"), depthSpinner,
+                progressBar, status, viewStatus); // add buttons and view state to toolbar
+
+        if (header != null && header.depth == depth && header.rule == rule.code()) {
+            // overview of the result file, read in the background and shown below the tiles
+            metrics.phase(Metrics.LOAD);
+            ImageLoader loader = new ImageLoader(resultPath);
+            progressBar.progressProperty().bind(loader.progressProperty());
+            status.setText("Loading " + resultPath + "...");
+
+            loader.setOnSucceeded(e -> {
+                int imageSize = loader.imageSize();
+                WritableImage image = new WritableImage(imageSize, imageSize);
+                // one bulk copy, every byte is an index into a palette from white (0) to black (255)
+                image.getPixelWriter().setPixels(0, 0, imageSize, imageSize, grayPalette(), loader.getValue(), 0, imageSize);
+                fileOverview = image;
+                fileOverviewCells = loader.cellsPerPixel();
+                fileDepth = header.depth;
+                if (renderer.depth() == fileDepth) {   // the depth may have been changed while loading
+                    renderer.setOverview(image, fileOverviewCells);
+                }
+                draw();
+
+                progressBar.setVisible(false);
+                status.setText(resultPath + " loaded");
+                metrics.stop();
+                metrics.put("gridSize", loader.gridSize());
+                metrics.put("imageSize", imageSize);
+                metrics.report(args);
+            });
+            loader.setOnFailed(e -> {
+                loader.getException().printStackTrace();   // exception handling
+                progressBar.setVisible(false);
+                status.setText("Could not load the result: " + loader.getException().getMessage());
+            });
+
+            Thread loaderThread = new Thread(loader, "result-loader");
+            loaderThread.setDaemon(true);              // do not keep the application alive
+            loaderThread.start();
+        } else {
+            progressBar.setVisible(false);
+            status.setText("Computed from the " + rule + " rule");
+            metrics.report(args);
+        }
 
-        toolBar.getItems().addAll(zoomInButton, zoomOutButton, resetButton); // add buttons to toolbar
+        // the canvas follows the size of the area below the toolbar
+        Pane view = new Pane(canvas);
+        view.setMinSize(0, 0);
+        canvas.setManaged(false);
+        canvas.widthProperty().bind(view.widthProperty());
+        canvas.heightProperty().bind(view.heightProperty());
+        canvas.widthProperty().addListener((o, oldWidth, newWidth) -> viewController.resize(canvas.getWidth(), canvas.getHeight()));
+        canvas.heightProperty().addListener((o, oldHeight, newHeight) -> viewController.resize(canvas.getWidth(), canvas.getHeight()));
 
-        // arrange components using BorderPane for the toolbar and StackPane for overall layout
+        // arrange components using BorderPane, toolbar at the top, view below
         BorderPane borderPane = new BorderPane();
         borderPane.setTop(toolBar);  // place toolbar at the top
+        borderPane.setCenter(view);
 
-        StackPane stackPane = new StackPane();
-        stackPane.getChildren().addAll(canvas, borderPane); // canvas at the bottom, BorderPane on top
-
-        Scene scene = new Scene(stackPane, WINDOW_WIDTH, WINDOW_HEIGHT);
+        Scene scene = new Scene(borderPane, WINDOW_WIDTH, WINDOW_HEIGHT);
 
-        // enable mouse dragging for panning
-        scene.setOnMousePressed(viewController::startDrag);  // handle mouse press event
-        scene.setOnMouseReleased(e -> scene.setCursor(Cursor.DEFAULT));  // handle mouse release event
-        scene.setOnMouseDragged(viewController::drag);  // handle mouse drag event
+        // mouse dragging for panning, mouse wheel for zooming at the pointer
+        canvas.setOnMousePressed(viewController::startDrag);  // handle mouse press event
+        canvas.setOnMouseReleased(viewController::endDrag);   // handle mouse release event
+        canvas.setOnMouseDragged(viewController::drag);       // handle mouse drag event
+        canvas.setOnScroll(e -> viewController.zoom(e.getDeltaY() > 0 ? 1.2 : 1 / 1.2, e.getX(), e.getY()));
 
         primaryStage.setScene(scene);
-        primaryStage.setTitle("Sierpinski Carpet");
+        primaryStage.setTitle(rule == Rule.CARPET ? "Sierpinski Carpet" : "Fractal: " + rule);
         primaryStage.show();
+        viewController.resetView(canvas.getWidth(), canvas.getHeight());
+    }
+
+    @Override
+    public void stop() {
+        renderer.shutdown();
+    }
+
+    // compute another depth in the background, the tiles of the old depth stop and the view stays on the same part
+    private void changeDepth(int depth) {
+        renderer.setDepth(depth);
+        if (fileOverview != null && depth == fileDepth) {
+            renderer.setOverview(fileOverview, fileOverviewCells);
+        }
+        viewController.setGridSize(renderer.gridSize());
+    }
+
+    // draw the visible tiles, one level coarser while the view is dragged
+    private void draw() {
+        if (canvas.getWidth() <= 0 || canvas.getHeight() <= 0) {
+            return;
+        }
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        int level = renderer.draw(gc, viewController, viewController.isDragging());
+        int pending = renderer.pendingTiles();
+        viewStatus.setText(String.format("%d x %d cells, %d cells per pixel", renderer.gridSize(), renderer.gridSize(), renderer.cellsPerPixel(level))
+                + (pending > 0 ? ", computing " + pending + " tiles" : ""));
+    }
+
+    // header of the result file or of the compressed result file, null if it cannot be read
+    private static ResultFile.Header readHeader(Path path) {
+        try {
+            if (CompressedFile.isCompressed(path)) {
+                try (CompressedFile.Reader reader = new CompressedFile.Reader(path)) {
+                    CompressedFile.Header header = reader.header();
+                    return new ResultFile.Header(header.depth, header.rule, header.gridSize, header.checksum);
+                }
+            }
+            return ResultFile.readHeader(path);
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // rule stored in a result file header, the carpet if the code is not a valid rule
+    private static Rule ruleOf(ResultFile.Header header) {
+        try {
+            return Rule.fromCode(header.rule);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " Using the carpet rule.");
+            return Rule.CARPET;
+        }
+    }
+
+    // 256 shades from white to black, index = share of black cells in a pixel
+    private static PixelFormat<ByteBuffer> grayPalette() {
+        int[] colors = new int[256];
+        for (int i = 0; i < colors.length; i++) {
+            int gray = 255 - i;
+            colors[i] = 0xFF000000 | gray << 16 | gray << 8 | gray;   // opaque argb
+        }
+        return PixelFormat.createByteIndexedInstance(colors);
     }
 
     // launch the JavaFX application
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// computes the fractal one band of rows at a time and writes every band straight to the output file
+// only a few bands are kept in memory, so the memory use does not depend on the depth
+//
+// with --producers=N, N threads compute bands into a fixed set of --buffers=M band buffers (default N + 2)
+// while this thread writes the finished bands in order, so computing and writing overlap
+// with --compress the bands go to result.cbin (see CompressedFile), chunks are compressed on the common pool
+public class Streaming {
+    private static final int DEFAULT_RECURSION_DEPTH = 4;  // default depth
+    private static final int DEFAULT_BAND_BYTES = 1 << 22; // memory for one band, 4 MB
+
+    public static void main(String[] args) {
+        // set default recursion depth
+        int recursionDepth = DEFAULT_RECURSION_DEPTH;
+
+        String[] values = Args.positional(args);   // arguments without the --options
+
+        // command line argument handling for the recursion depth
+        if (values.length > 0) {
+            try {
+                recursionDepth = Integer.parseInt(values[0]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid recursion depth. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
+            }
+        } else {
+            System.out.println("No recursion depth argument provided. Using default value of " + DEFAULT_RECURSION_DEPTH + ".");
+        }
+
+        Rule rule = Rule.fromArgs(args);                   // --rule, the carpet by default
+        int gridSize = rule.size(recursionDepth);          // calc grid based on rec
+
+        // rows per band, from --band or as many rows as fit in the default band memory
+        int bandRows = Math.max(1, Args.intValue(args, "band", bandRowsFor(gridSize, DEFAULT_BAND_BYTES)));
+
+        // producer threads and band buffers for the pipeline, 0 producers computes and writes in this thread
+        int producers = Math.max(0, Args.intValue(args, "producers", 0));
+        int buffers = Math.max(1, Args.intValue(args, "buffers", producers + 2));
+
+        System.out.println("Starting streaming computation with depth: " + recursionDepth + ", rule: " + rule);
+        System.out.println("Rows per band: " + bandRows);
+        if (producers > 0) {
+            System.out.println("Producers: " + producers + ", band buffers: " + buffers);
+        }
+
+        // track time for computing and writing, they are interleaved
+        long startTime = System.nanoTime();
+
+        try (RowSink sink = sinkFor(args, recursionDepth, rule, gridSize)) {
+            RowKernel kernel = RowKernel.create(rule, recursionDepth);
+            if (producers > 0) {
+                generate(sink, kernel, bandRows, producers, buffers);
+            } else {
+                generate(sink, kernel, bandRows);
+            }
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+        }
+
+        long endTime = System.nanoTime();
+
+        // calculate time in ms with three decimal places
+        double elapsedTime = (endTime - startTime) / 1_000_000.0;
+        System.out.printf("Streaming computation completed in %.3f milliseconds.%n", elapsedTime);
+    }
+
+    // result.bin (result.cbin with --compress) like the other engines, and result.txt as well with --text
+    private static RowSink sinkFor(String[] args, int depth, Rule rule, int gridSize) throws IOException {
+        RowSink file = Args.hasFlag(args, "compress")
+                ? new CompressedFile.Writer(Paths.get(CompressedFile.FILE_NAME), depth, rule.code(), gridSize,
+                        CompressedFile.chunkRowsFor(args, gridSize), ForkJoinPool.commonPool())
+                : new ResultFile.Writer(Paths.get(ResultFile.FILE_NAME), depth, rule.code(), gridSize);
+        if (!Args.hasFlag(args, "text")) {
+            return file;
+        }
+        try {
+            return RowSink.both(file, new ResultFile.TextWriter(Paths.get(ResultFile.TEXT_FILE_NAME), gridSize));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // number of rows of a band that uses about the given number of bytes, at least one row
+    public static int bandRowsFor(int gridSize, long bandBytes) {
+        long rowBytes = (long) BitGrid.wordsFor(gridSize) * Long.BYTES;
+        return (int) Math.max(1, Math.min(gridSize, bandBytes / Math.max(1, rowBytes)));
+    }
+
+    // compute all rows band by band and hand every band to the sink, the band buffer is reused
+    public static void generate(RowSink sink, RowKernel kernel, int bandRows) throws IOException {
+        int gridSize = kernel.size();
+        BitGrid band = new BitGrid(Math.min(bandRows, gridSize), gridSize);
+        for (int firstRow = 0; firstRow < gridSize; firstRow += bandRows) {
+            int rowCount = Math.min(bandRows, gridSize - firstRow);   // last band can be smaller
+            computeBand(kernel, band, firstRow, rowCount);
+            sink.writeRows(band, firstRow, rowCount);
+        }
+    }
+
+    // pipeline: producers compute bands into free buffers, this thread hands the bands to the sink in order
+    // a producer takes a free buffer before it claims the next band, so the band the writer waits for
+    // always has a buffer and the pipeline cannot stall, at most `buffers` bands are in memory
+    public static void generate(RowSink sink, RowKernel kernel, int bandRows, int producers, int buffers) throws IOException {
+        int gridSize = kernel.size();
+        int bands = (gridSize + bandRows - 1) / bandRows;
+        BlockingQueue<BitGrid> free = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            free.add(new BitGrid(Math.min(bandRows, gridSize), gridSize));
+        }
+        BitGrid[] done = new BitGrid[bands];          // finished bands that are not written yet, guarded by done
+        AtomicInteger nextBand = new AtomicInteger();
+        AtomicLong computeTime = new AtomicLong();   // summed over all producers
+        Throwable[] failure = new Throwable[1];
+
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        for (int p = 0; p < producers; p++) {
+            executor.execute(() -> {
+                try {
+                    while (true) {
+                        BitGrid buffer = free.take();                  // waits while all buffers are in use
+                        int b = nextBand.getAndIncrement();
+                        if (b >= bands) {
+                            return;
+                        }
+                        long start = System.nanoTime();
+                        computeBand(kernel, buffer, b * bandRows, Math.min(bandRows, gridSize - b * bandRows));
+                        computeTime.addAndGet(System.nanoTime() - start);
+                        synchronized (done) {
+                            done[b] = buffer;
+                            done.notifyAll();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // writer stopped
+                } catch (RuntimeException | Error e) {
+                    synchronized (done) {
+                        failure[0] = e;
+                        done.notifyAll();
+                    }
+                }
+            });
+        }
+
+        long writeTime = 0, waitTime = 0;             // writer thread
+        try {
+            for (int b = 0; b < bands; b++) {
+                long start = System.nanoTime();
+                BitGrid band;
+                synchronized (done) {
+                    while (done[b] == null && failure[0] == null) {
+                        done.wait();
+                    }
+                    if (failure[0] != null) {
+                        throw new IOException("Band computation failed", failure[0]);
+                    }
+                    band = done[b];
+                    done[b] = null;
+                }
+                long ready = System.nanoTime();
+                sink.writeRows(band, b * bandRows, Math.min(bandRows, gridSize - b * bandRows));
+                free.add(band);                                // buffer can be filled again
+                waitTime += ready - start;
+                writeTime += System.nanoTime() - ready;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a band", e);
+        } finally {
+            executor.shutdownNow();                            // wakes producers that wait for a buffer
+        }
+        System.out.printf("Compute %.3f ms (summed over producers), write %.3f ms, writer waited %.3f ms for bands.%n",
+                computeTime.get() / 1_000_000.0, writeTime / 1_000_000.0, waitTime / 1_000_000.0);
+    }
+
+    // compute rows firstRow..firstRow+rowCount of the grid into the band
+    private static void computeBand(RowKernel kernel, BitGrid band, int firstRow, int rowCount) {
+        for (int i = 0; i < rowCount; i++) {
+            kernel.computeRow(firstRow + i, band.words(), band.rowOffset(i));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+import javafx.application.Platform;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// draws the visible part of the fractal from square tiles (see Tiles), only the tiles in the view are computed
+// level 0 shows single cells, every level above has k times fewer pixels per side (3 for the carpet)
+// tiles are computed on a ForkJoinPool and kept in an LRU cache, a missing tile is covered by
+// a coarser tile from the cache until it is ready
+// a tile is computed in bands of BAND_ROWS rows and shown band by band, it stops after the current band
+// once it is out of the view or the depth was changed
+public class TileRenderer {
+    private static final int BAND_ROWS = 32;        // rows of a tile that are computed and shown at once
+
+    private final Rule rule;
+    private int depth, gridSize;                    // changed with setDepth
+    private RowKernel[] kernels;                    // row kernel per level, created on first use, guarded by this
+    private volatile int generation;                // counts the depth changes, tiles of an older generation are dropped
+    private final LruCache<Long, Image> cache;
+    private volatile Set<Long> pending = ConcurrentHashMap.newKeySet();   // tiles queued or being computed
+    private volatile Set<Long> wanted = Set.of();                         // tiles of the last frame
+    private final Map<Long, WritableImage> partial = new HashMap<>();     // tiles with some bands done, FX thread only
+    private final ForkJoinPool pool;
+    private final AtomicBoolean redrawQueued = new AtomicBoolean();
+    private final Runnable redraw;                  // draws the view again, on the FX thread
+
+    private Image overview;                         // whole grid loaded from the result file, drawn below the tiles
+    private int overviewCells;                      // cells per pixel of the overview
+
+    // constructor, cacheBytes limits the memory of the tile cache
+    public TileRenderer(Rule rule, int depth, long cacheBytes, Runnable redraw) {
+        this.rule = rule;
+        this.depth = depth;
+        this.gridSize = rule.size(depth);
+        this.kernels = new RowKernel[depth + 1];
+        this.cache = new LruCache<>(cacheBytes, image -> (long) image.getWidth() * (long) image.getHeight() * 4);
+        this.redraw = redraw;
+
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);   // one core stays free for the FX thread
+        this.pool = new ForkJoinPool(threads);      // daemon worker threads, they do not keep the application alive
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    public int gridSize() {
+        return gridSize;
+    }
+
+    // number of tiles that are queued or being computed
+    public int pendingTiles() {
+        return pending.size();
+    }
+
+    // show another depth of the same rule, called on the FX thread
+    // the tiles and the overview of the old depth are dropped, tiles of the old depth that are running stop after their band
+    public synchronized void setDepth(int depth) {
+        this.depth = depth;
+        this.gridSize = rule.size(depth);
+        this.kernels = new RowKernel[depth + 1];
+        generation++;
+        pending = ConcurrentHashMap.newKeySet();
+        wanted = Set.of();
+        partial.clear();
+        cache.clear();
+        overview = null;
+    }
+
+    // cells per tile pixel of a level
+    public long cellsPerPixel(int level) {
+        return Tiles.cellsPerPixel(rule, level);
+    }
+
+    // image of the whole grid, shown where no tile is ready yet
+    public void setOverview(Image overview, int cellsPerPixel) {
+        this.overview = overview;
+        this.overviewCells = cellsPerPixel;
+    }
+
+    // coarsest level that still has one tile pixel per screen pixel at this zoom
+    public int levelFor(double scale) {
+        int level = 0;
+        double pixel = scale;                       // screen pixels per tile pixel
+        while (pixel < 1 && level < depth) {
+            pixel *= rule.base();
+            level++;
+        }
+        return level;
+    }
+
+    // draw the view, with coarse = true one level coarser than the zoom needs (while panning)
+    public int draw(GraphicsContext gc, ViewController view, boolean coarse) {
+        double width = gc.getCanvas().getWidth();
+        double height = gc.getCanvas().getHeight();
+        double scale = view.scale();
+
+        gc.setFill(Color.LIGHTGRAY);                // outside of the grid
+        gc.fillRect(0, 0, width, height);
+        gc.setFill(Color.WHITE);
+        gc.fillRect(screenX(view, 0), screenY(view, 0), gridSize * scale, gridSize * scale);
+        if (overview != null) {
+            gc.setImageSmoothing(true);
+            double side = overview.getWidth() * overviewCells * scale;
+            gc.drawImage(overview, screenX(view, 0), screenY(view, 0), side, side);
+        }
+        gc.setImageSmoothing(false);                // tile pixels are at least one screen pixel, keep them sharp
+
+        int level = Math.min(depth, levelFor(scale) + (coarse ? 1 : 0));
+        long cells = cellsPerPixel(level) * Tiles.SIZE;        // cells per tile side
+        int tiles = (int) ((gridSize + cells - 1) / cells);   // tiles per grid side
+        int firstX = clamp((long) Math.floor(view.x() / cells), tiles);
+        int lastX = clamp((long) Math.floor((view.x() + width / scale) / cells), tiles);
+        int firstY = clamp((long) Math.floor(view.y() / cells), tiles);
+        int lastY = clamp((long) Math.floor((view.y() + height / scale) / cells), tiles);
+
+        // visible tiles, the ones in the middle of the view first
+        List<long[]> visible = new ArrayList<>();
+        for (int ty = firstY; ty <= lastY; ty++) {
+            for (int tx = firstX; tx <= lastX; tx++) {
+                visible.add(new long[]{tx, ty});
+            }
+        }
+        double centerX = (view.x() + width / 2 / scale) / cells - 0.5;
+        double centerY = (view.y() + height / 2 / scale) / cells - 0.5;
+        visible.sort(Comparator.comparingDouble(t -> Math.abs(t[0] - centerX) + Math.abs(t[1] - centerY)));
+
+        Set<Long> keys = new HashSet<>();
+        List<Image> ready = new ArrayList<>();
+        List<long[]> readyAt = new ArrayList<>();
+        List<long[]> missing = new ArrayList<>();
+        List<Long> missingKeys = new ArrayList<>();
+        Set<Long> fallbacks = new LinkedHashSet<>();
+        for (long[] tile : visible) {
+            long key = key(level, (int) tile[0], (int) tile[1]);
+            keys.add(key);
+            Image image = cache.get(key);
+            if (image != null) {
+                ready.add(image);
+                readyAt.add(tile);
+                continue;
+            }
+            missing.add(tile);
+            missingKeys.add(key);
+            // the tile of the next coarser level that is in the cache covers this one for now
+            int base = rule.base();
+            for (int coarser = level + 1, tx = (int) tile[0] / base, ty = (int) tile[1] / base; coarser <= depth; coarser++, tx /= base, ty /= base) {
+                long coarseKey = key(coarser, tx, ty);
+                if (fallbacks.contains(coarseKey) || cache.get(coarseKey) != null) {
+                    fallbacks.add(coarseKey);
+                    break;
+                }
+            }
+        }
+        wanted = keys;
+        for (long[] tile : missing) {
+            request(level, (int) tile[0], (int) tile[1]);
+        }
+
+        for (long key : fallbacks) {
+            Image image = cache.get(key);
+            if (image != null) {
+                drawTile(gc, view, image, (int) (key >>> 58), (int) (key >>> 29) & 0x1FFFFFFF, (int) key & 0x1FFFFFFF);
+            }
+        }
+        for (int i = 0; i < missing.size(); i++) {     // bands that are done, the rest of the image is transparent
+            WritableImage image = partial.get(missingKeys.get(i));
+            if (image != null) {
+                drawTile(gc, view, image, level, (int) missing.get(i)[0], (int) missing.get(i)[1]);
+            }
+        }
+        for (int i = 0; i < ready.size(); i++) {
+            drawTile(gc, view, ready.get(i), level, (int) readyAt.get(i)[0], (int) readyAt.get(i)[1]);
+        }
+        return level;
+    }
+
+    // stop the background threads
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // draw one tile, the edges are rounded to whole screen pixels so neighbouring tiles do not leave gaps
+    private void drawTile(GraphicsContext gc, ViewController view, Image image, int level, int tx, int ty) {
+        long cells = cellsPerPixel(level);
+        long cellX = (long) tx * Tiles.SIZE * cells;
+        long cellY = (long) ty * Tiles.SIZE * cells;
+        double left = Math.round(screenX(view, cellX));
+        double top = Math.round(screenY(view, cellY));
+        double right = Math.round(screenX(view, cellX + (long) image.getWidth() * cells));
+        double bottom = Math.round(screenY(view, cellY + (long) image.getHeight() * cells));
+        gc.drawImage(image, left, top, right - left, bottom - top);
+    }
+
+    // queue a tile that is not queued yet
+    private void request(int level, int tx, int ty) {
+        long key = key(level, tx, ty);
+        Set<Long> queued = pending;
+        if (!queued.add(key)) {
+            return;
+        }
+        int tileGeneration = generation;
+        pool.execute(() -> {
+            try {
+                if (!renderTile(tileGeneration, key, level, tx, ty)) {
+                    queued.remove(key);             // stopped, it can be queued again
+                    Platform.runLater(() -> {
+                        if (tileGeneration == generation) {
+                            partial.remove(key);
+                        }
+                    });
+                }
+            } catch (RuntimeException e) {          // handle exception
+                e.printStackTrace();
+                queued.remove(key);
+            }
+        });
+    }
+
+    // compute one tile in the background band by band, every band is handed to the FX thread as soon as it is done
+    // returns false if the tile was stopped because it is not wanted any more
+    private boolean renderTile(int tileGeneration, long key, int level, int tx, int ty) {
+        RowKernel kernel = kernel(tileGeneration, level);
+        if (kernel == null) {
+            return false;
+        }
+        int width = Tiles.extent(kernel, tx);
+        int height = Tiles.extent(kernel, ty);
+        WritableImage image = new WritableImage(width, height);
+        int[] pixels = new int[width * height];
+        for (int from = 0; from < height; from += BAND_ROWS) {
+            if (tileGeneration != generation || !wanted.contains(key) || Thread.currentThread().isInterrupted()) {
+                return false;                       // scrolled out of view, depth changed or shut down
+            }
+            int fromRow = from;
+            int toRow = Math.min(height, from + BAND_ROWS);
+            Tiles.render(kernel, level, tx, ty, pixels, fromRow, toRow);
+            Platform.runLater(() -> showBand(tileGeneration, key, image, pixels, fromRow, toRow));
+        }
+        return true;
+    }
+
+    // copy a finished band into the tile image, on the FX thread, the last band moves the tile into the cache
+    private void showBand(int tileGeneration, long key, WritableImage image, int[] pixels, int fromRow, int toRow) {
+        if (tileGeneration != generation) {
+            return;                                 // tile of the old depth
+        }
+        int width = (int) image.getWidth();
+        image.getPixelWriter().setPixels(0, fromRow, width, toRow - fromRow, PixelFormat.getIntArgbInstance(), pixels, fromRow * width, width);
+        if (toRow == (int) image.getHeight()) {
+            partial.remove(key);
+            cache.put(key, image);
+            pending.remove(key);
+        } else {
+            partial.put(key, image);
+        }
+        if (redrawQueued.compareAndSet(false, true)) {   // one redraw for all bands that finish together
+            Platform.runLater(() -> {
+                redrawQueued.set(false);
+                redraw.run();
+            });
+        }
+    }
+
+    // row kernel of a level, the fractal of depth - level, null if the depth has changed since the tile was queued
+    private synchronized RowKernel kernel(int tileGeneration, int level) {
+        if (tileGeneration != generation) {
+            return null;
+        }
+        if (kernels[level] == null) {
+            kernels[level] = RowKernel.create(rule, depth - level);
+        }
+        return kernels[level];
+    }
+
+    // level in the top 6 bits, tile column and row in 29 bits each
+    private static long key(int level, int tx, int ty) {
+        return (long) level << 58 | (long) tx << 29 | ty;
+    }
+
+    private static int clamp(long tile, int tiles) {
+        return (int) Math.max(0, Math.min(tiles - 1, tile));
+    }
+
+    private static double screenX(ViewController view, long cellX) {
+        return (cellX - view.x()) * view.scale();
+    }
+
+    private static double screenY(ViewController view, long cellY) {
+        return (cellY - view.y()) * view.scale();
+    }
+}
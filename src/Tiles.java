@@ -0,0 +1,52 @@
+// square image tiles of a fractal, used by the viewer and by FractalServer (no JavaFX here)
+// a tile of level L has one pixel per block of k^L x k^L cells (3^L for the carpet), so it is a piece of the fractal
+// of depth - L and its rows come straight from the row kernel of that depth
+public class Tiles {
+    public static final int SIZE = 256;                 // pixels per tile side, a multiple of 64
+    public static final int WHITE = 0xFFFFFFFF;
+
+    // cells per tile pixel in each direction, k^level
+    public static long cellsPerPixel(Rule rule, int level) {
+        long cells = 1;
+        for (int i = 0; i < level; i++) {
+            cells *= rule.base();
+        }
+        return cells;
+    }
+
+    // tiles per grid side of a level, kernel is the row kernel of depth - level
+    public static int tilesPerSide(RowKernel kernel) {
+        return (kernel.size() + SIZE - 1) / SIZE;
+    }
+
+    // pixels of tile number t in one direction, the last tile of a side can be smaller
+    public static int extent(RowKernel kernel, int t) {
+        return Math.min(SIZE, kernel.size() - t * SIZE);
+    }
+
+    // argb pixels of tile (tx, ty), extent(tx) pixels per row, a kept pixel is as dark as the share of kept cells in its block
+    public static int[] render(RowKernel kernel, int level, int tx, int ty) {
+        int[] pixels = new int[extent(kernel, tx) * extent(kernel, ty)];
+        render(kernel, level, tx, ty, pixels, 0, extent(kernel, ty));
+        return pixels;
+    }
+
+    // pixel rows fromRow..toRow-1 of tile (tx, ty) into pixels, so a tile can be computed and shown band by band
+    public static void render(RowKernel kernel, int level, int tx, int ty, int[] pixels, int fromRow, int toRow) {
+        int width = extent(kernel, tx);
+        int fromWord = tx * SIZE / 64;
+        int toWord = BitGrid.wordsFor(tx * SIZE + width);
+
+        double coverage = Math.pow(kernel.rule().density(), level);   // share of kept cells in a block of a kept pixel
+        int gray = (int) Math.round(255 * (1 - coverage));
+        int kept = 0xFF000000 | gray << 16 | gray << 8 | gray;
+
+        long[] row = new long[toWord - fromWord];
+        for (int r = fromRow; r < toRow; r++) {
+            kernel.computeWords(ty * SIZE + r, row, -fromWord, fromWord, toWord);   // word fromWord goes to row[0]
+            for (int c = 0; c < width; c++) {
+                pixels[r * width + c] = (row[c >>> 6] >>> c & 1) != 0 ? kept : WHITE;
+            }
+        }
+    }
+}
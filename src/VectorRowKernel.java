@@ -0,0 +1,33 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// row kernel using the Vector API, combines the row masks several words per instruction
+// only used through RowKernel.create, which falls back to the scalar kernel when the module is missing
+class VectorRowKernel extends RowKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;  // widest vector of the cpu
+
+    VectorRowKernel(Rule rule, int depth) {
+        super(rule, depth);
+    }
+
+    // AND the first count masks into out, all masks are applied to one vector before it is stored
+    @Override
+    protected void combine(long[][] rowMasks, int count, long[] out, int offset, int fromWord, int toWord) {
+        int w = fromWord;
+        int bound = fromWord + SPECIES.loopBound(toWord - fromWord);
+        for (; w < bound; w += SPECIES.length()) {
+            LongVector value = LongVector.fromArray(SPECIES, rowMasks[0], w);
+            for (int m = 1; m < count; m++) {
+                value = value.and(LongVector.fromArray(SPECIES, rowMasks[m], w));
+            }
+            value.intoArray(out, offset + w);
+        }
+        for (; w < toWord; w++) {                                   // words that do not fill a whole vector
+            long value = -1L;
+            for (int m = 0; m < count; m++) {
+                value &= rowMasks[m][w];
+            }
+            out[offset + w] = value;
+        }
+    }
+}
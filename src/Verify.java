@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+// checks every engine against the per cell oracle Rule.contains, run with Sequential --verify
+// small grids of several rules (also non square digit patterns and other bases), every cell is compared
+public class Verify {
+    private static final long MAX_SIZE = 1024;          // cells per side of the largest checked grid
+    private static final int CHECKPOINT_DEPTH = 4;      // smallest checkpoint CheckpointCache uses
+    private static final int RECTANGLES = 200;          // random rectangles per depth for CarpetQuery.count
+
+    private int checks, failures;
+
+    // true if every check passed, a summary is printed either way
+    public static boolean run(String[] args) {
+        List<Rule> rules = new ArrayList<>(List.of(Rule.CARPET, Rule.VICSEK, Rule.CANTOR, Rule.SALTIRE,
+                Rule.parse("10/11"), Rule.parse("1101/0110/1011/1001"), Rule.parse("10001/01110/00100/01010/10101")));
+        Rule given = Rule.fromArgs(args);                // --rule is checked too
+        if (rules.stream().noneMatch(rule -> rule.code() == given.code())) {
+            rules.add(given);
+        }
+
+        Verify verify = new Verify();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (Rule rule : rules) {
+                verify.checkRule(rule, pool);
+            }
+        } catch (IOException e) {  // handle exception
+            e.printStackTrace();
+            verify.failures++;
+        } finally {
+            pool.shutdown();
+        }
+
+        if (verify.failures == 0) {
+            System.out.println("Verification passed: " + verify.checks + " checks.");
+        } else {
+            System.err.println("Verification failed: " + verify.failures + " of " + verify.checks + " checks.");
+        }
+        return verify.failures == 0;
+    }
+
+    private void checkRule(Rule rule, ForkJoinPool pool) throws IOException {
+        Path dir = Files.createTempDirectory("verify");
+        try {
+            CheckpointCache checkpoints = new CheckpointCache(dir, rule);
+            for (int depth = 0; depth <= rule.maxDepth(MAX_SIZE); depth++) {
+                BitGrid expected = oracle(rule, depth);
+                int size = expected.rows();
+                String name = rule + " depth " + depth + ": ";
+
+                compare(name + "RowKernel", expected, rows(new RowKernel(rule, depth)));
+                RowKernel kernel = RowKernel.create(rule, depth);
+                compare(name + kernel.getClass().getSimpleName(), expected, rows(kernel));
+                compare(name + "SelfSimilar", expected, SelfSimilar.compute(rule, depth));
+
+                BitGrid parallel = new BitGrid(size);
+                Parallel.computeBands(pool, kernel, parallel, 0, 1);
+                compare(name + "Parallel", expected, parallel);
+                int firstRow = size / 3;                            // band in the middle, the last rows of the grid
+                BitGrid band = new BitGrid(size - firstRow, size);
+                Parallel.computeBands(pool, kernel, band, firstRow, 2);
+                compareBand(name + "Parallel band", expected, band, firstRow);
+
+                BitGrid streamed = new BitGrid(size);
+                Streaming.generate(collect(streamed), kernel, 5);
+                compare(name + "Streaming", expected, streamed);
+                BitGrid pipelined = new BitGrid(size);
+                Streaming.generate(collect(pipelined), kernel, 3, 2, 3);
+                compare(name + "Streaming pipeline", expected, pipelined);
+
+                if (depth == CHECKPOINT_DEPTH) {                     // deeper grids are extended from this one
+                    Path file = dir.resolve(ResultFile.FILE_NAME);
+                    ResultFile.write(file, expected, depth, rule.code());
+                    checkpoints.store(depth, file);
+                }
+                if (depth >= CHECKPOINT_DEPTH) {
+                    BitGrid filled = new BitGrid(size);
+                    check(name + "CheckpointCache", checkpoints.fill(filled, 0, depth) == CHECKPOINT_DEPTH);
+                    compare(name + "CheckpointCache", expected, filled);
+                    BitGrid filledBand = new BitGrid(size - firstRow, size);
+                    checkpoints.fill(filledBand, firstRow, depth);
+                    compareBand(name + "CheckpointCache band", expected, filledBand, firstRow);
+                }
+
+                checkQuery(name + "CarpetQuery", new CarpetQuery(rule, depth), expected);
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    // grid from Rule.contains, one cell at a time (x is the column, y the row)
+    private static BitGrid oracle(Rule rule, int depth) {
+        int size = rule.size(depth);
+        BitGrid grid = new BitGrid(size);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                grid.set(y, x, rule.contains(x, y, depth));
+            }
+        }
+        return grid;
+    }
+
+    private static BitGrid rows(RowKernel kernel) {
+        BitGrid grid = new BitGrid(kernel.size());
+        for (int i = 0; i < grid.rows(); i++) {
+            kernel.computeRow(i, grid.words(), grid.rowOffset(i));
+        }
+        return grid;
+    }
+
+    // sink that copies every band into the grid
+    private static RowSink collect(BitGrid grid) {
+        return new RowSink() {
+            @Override
+            public void writeRows(BitGrid band, int firstRow, int rowCount) {
+                for (int i = 0; i < rowCount; i++) {
+                    System.arraycopy(band.words(), band.rowOffset(i), grid.words(), grid.rowOffset(firstRow + i), grid.wordsPerRow());
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    // filled cells and random rectangles against a prefix sum of the oracle, rectangles also reach outside of the grid
+    private void checkQuery(String name, CarpetQuery query, BitGrid expected) {
+        int size = expected.rows();
+        long[][] prefix = new long[size + 1][size + 1];      // prefix[y][x]: filled cells with column < x and row < y
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                prefix[y + 1][x + 1] = prefix[y + 1][x] + prefix[y][x + 1] - prefix[y][x] + (expected.get(y, x) ? 1 : 0);
+            }
+        }
+        check(name + " filled", query.filled().longValueExact() == prefix[size][size]);
+
+        Random random = new Random(size);
+        for (int i = 0; i < RECTANGLES; i++) {
+            long x0 = random.nextInt(size + 4) - 2, x1 = random.nextInt(size + 4) - 2;
+            long y0 = random.nextInt(size + 4) - 2, y1 = random.nextInt(size + 4) - 2;
+            BigInteger count = query.count(x0, y0, x1, y1);
+            long brute = x0 >= x1 || y0 >= y1 ? 0 : sum(prefix, clamp(x0, size), clamp(y0, size), clamp(x1, size), clamp(y1, size));
+            if (!check(name + " count", count.longValueExact() == brute)) {
+                System.err.printf("  rectangle (%d, %d) - (%d, %d): %s, expected %d%n", x0, y0, x1, y1, count, brute);
+                return;
+            }
+        }
+    }
+
+    private static long sum(long[][] prefix, int x0, int y0, int x1, int y1) {
+        return prefix[y1][x1] - prefix[y0][x1] - prefix[y1][x0] + prefix[y0][x0];
+    }
+
+    private static int clamp(long value, int size) {
+        return (int) Math.max(0, Math.min(size, value));
+    }
+
+    private void compare(String name, BitGrid expected, BitGrid actual) {
+        compareBand(name, expected, actual, 0);
+    }
+
+    // rows of actual are rows firstRow.. of expected, the first different cell is reported
+    private void compareBand(String name, BitGrid expected, BitGrid actual, int firstRow) {
+        for (int r = 0; r < actual.rows(); r++) {
+            for (int c = 0; c < actual.cols(); c++) {
+                if (actual.get(r, c) != expected.get(firstRow + r, c)) {
+                    check(name, false);
+                    System.err.println("  first difference in row " + (firstRow + r) + ", column " + c + ".");
+                    return;
+                }
+            }
+        }
+        check(name, actual.cols() == expected.cols());
+    }
+
+    private boolean check(String name, boolean passed) {
+        checks++;
+        if (!passed) {
+            failures++;
+            System.err.println("FAILED " + name);
+        }
+        return passed;
+    }
+}
@@ -1,44 +1,89 @@
 import javafx.scene.Cursor;
-import javafx.scene.Scene;
+import javafx.scene.Node;
 import javafx.scene.input.MouseEvent;
-import javafx.scene.transform.Scale;
-import javafx.scene.transform.Translate;
 
+// viewport over the grid: which cell is at the top left corner of the view and how many screen pixels a cell takes
+// every change calls onChange, which draws the visible tiles again
 public class ViewController {
 
-    // store the scale and translation transformations
-    private final Scale scaleTransform;
-    private final Translate translateTransform;
+    private static final double MAX_SCALE = 64;   // screen pixels per cell at the deepest zoom
 
-    // store initial coordinates of mouse pointer and view translation for drag operation
+    private int gridSize;                 // cells per grid side
+    private final Runnable onChange;      // redraw
+
+    private double scale = 1;             // screen pixels per cell
+    private double x, y;                  // cell coordinates of the top left corner of the view
+    private double width, height;         // size of the view in screen pixels
+
+    // store initial coordinates of mouse pointer and view position for drag operation
     private double initialX, initialY;
     private double startX, startY;
+    private boolean dragging;
 
     // constructor
-    public ViewController(Scale scaleTransform, Translate translateTransform) {
-        this.scaleTransform = scaleTransform;
-        this.translateTransform = translateTransform;
+    public ViewController(int gridSize, Runnable onChange) {
+        this.gridSize = gridSize;
+        this.onChange = onChange;
+    }
+
+    public double scale() {
+        return scale;
+    }
+
+    public double x() {
+        return x;
+    }
+
+    public double y() {
+        return y;
+    }
+
+    public boolean isDragging() {
+        return dragging;
     }
 
-    // method to adjust the scale of the drawing pane based on zoom factor
+    // zoom by a factor, the center of the view stays in place
     public void zoom(double factor) {
-        // retrieve the current horizontal and vertical scale factor and multiply it by the zoom factor
-        scaleTransform.setX(scaleTransform.getX() * factor);
-        scaleTransform.setY(scaleTransform.getY() * factor);
+        zoom(factor, width / 2, height / 2);
     }
 
-    // method to reset the scale and position of the drawing pane to the default
-    public void resetView(double sceneWidth, double sceneHeight) {
-        scaleTransform.setX(1);
-        scaleTransform.setY(1);
+    // zoom by a factor, the cell under the screen point (px, py) stays in place
+    public void zoom(double factor, double px, double py) {
+        double cellX = x + px / scale;
+        double cellY = y + py / scale;
+        scale = Math.max(fitScale() / 4, Math.min(Math.max(MAX_SCALE, fitScale()), scale * factor));
+        x = cellX - px / scale;
+        y = cellY - py / scale;
+        onChange.run();
+    }
 
-        // calculate the distances needed to center the drawing pane
-        double offsetX = (sceneWidth - SimpleGUI.WINDOW_WIDTH) / 2.0;
-        double offsetY = (sceneHeight - SimpleGUI.WINDOW_HEIGHT) / 2.0;
+    // grid of another depth, the view keeps showing the same part of the fractal
+    public void setGridSize(int newSize) {
+        double factor = newSize / (double) gridSize;    // cells of the new grid per cell of the old one
+        gridSize = newSize;
+        x *= factor;
+        y *= factor;
+        scale /= factor;
+        onChange.run();
+    }
+
+    // fit the whole grid into a view of the given size and center it
+    public void resetView(double viewWidth, double viewHeight) {
+        width = viewWidth;
+        height = viewHeight;
+        scale = fitScale();
+        x = gridSize / 2.0 - width / 2 / scale;
+        y = gridSize / 2.0 - height / 2 / scale;
+        onChange.run();
+    }
 
-        // set translation to center the fractal
-        translateTransform.setX(offsetX);
-        translateTransform.setY(offsetY);
+    // new size of the view, the cell in the center stays in the center
+    public void resize(double viewWidth, double viewHeight) {
+        x += (width - viewWidth) / 2 / scale;
+        y += (height - viewHeight) / 2 / scale;
+        width = viewWidth;
+        height = viewHeight;
+        onChange.run();
     }
 
     // method initializes the drag operation
@@ -47,21 +92,35 @@ public class ViewController {
         initialX = event.getSceneX();
         initialY = event.getSceneY();
 
-        // store x, y coordinates of current translation of view (starting point for drag)
-        startX = translateTransform.getX();
-        startY = translateTransform.getY();
+        // store the cell at the top left corner of the view (starting point for drag)
+        startX = x;
+        startY = y;
+        dragging = true;
 
-        ((Scene) event.getSource()).setCursor(Cursor.CLOSED_HAND); // set cursor to hand when dragging starts
+        ((Node) event.getSource()).setCursor(Cursor.CLOSED_HAND); // set cursor to hand when dragging starts
     }
 
-    // method update view's translation based on mouse movement during the drag operation
+    // method moves the view with the mouse during the drag operation
     public void drag(MouseEvent event) {
-        // calculate x, y offset of mouse pointer from initial position
-        double offsetX = event.getSceneX() - initialX;
-        double offsetY = event.getSceneY() - initialY;
+        // calculate x, y offset of mouse pointer from initial position, in cells
+        double offsetX = (event.getSceneX() - initialX) / scale;
+        double offsetY = (event.getSceneY() - initialY) / scale;
+
+        x = startX - offsetX;
+        y = startY - offsetY;
+        onChange.run();
+    }
+
+    // drag operation is over, draw the view at full detail again
+    public void endDrag(MouseEvent event) {
+        dragging = false;
+        ((Node) event.getSource()).setCursor(Cursor.DEFAULT);
+        onChange.run();
+    }
 
-        // update translation of view based on calculated offset
-        translateTransform.setX(startX + offsetX);
-        translateTransform.setY(startY + offsetY);
+    // screen pixels per cell that show the whole grid
+    private double fitScale() {
+        double side = Math.min(width, height);
+        return side > 0 ? side / gridSize : 1;
     }
 }